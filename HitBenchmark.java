@@ -0,0 +1,118 @@
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Drives the game loop flat out and reports how many hits per second it takes. Players connect
+ * in-process, so no sockets or display are involved, and flood HIT lines with rate limits lifted.
+ * Senders hold back once MAX_IN_FLIGHT hits are waiting, so the loop never runs dry but its
+ * queue doesn't grow into a GC benchmark either.
+ *
+ *     java HitBenchmark [players] [seconds]
+ *
+ * Throughput is measured after a warmup; the server's own loop line follows for comparison.
+ */
+public class HitBenchmark {
+    private static final int MAX_IN_FLIGHT = 100_000; // hits sent but not yet run by the loop
+    private static final int WARMUP = 3; // seconds
+    
+    public static void main(String[] args) throws Exception {
+        int playerCount = args.length > 0 ? Integer.parseInt(args[0]) : 50;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        
+        // Read once when the server class loads, so they have to be set before it is touched
+        System.setProperty("java.awt.headless", "true");
+        System.setProperty("whackamole.autoMatch", "false");
+        System.setProperty("whackamole.maxMessagesPerSecond", "1000000000");
+        System.setProperty("whackamole.messageBurst", "1000000000");
+        System.setProperty("whackamole.maxPending", "1000000000");
+        
+        CountDownLatch stopped = new CountDownLatch(1);
+        WhackAMoleServer server = new WhackAMoleServer();
+        server.setView(new WhackAMoleServer.View() {
+            @Override
+            public void log(String message) {
+                if (message.startsWith("Game loop") || message.startsWith("Hit path")) {
+                    System.out.println(message);
+                } else if (message.startsWith("Game stopped")) {
+                    stopped.countDown();
+                }
+            }
+        });
+        server.start(false);
+        
+        Transport[] connections = new Transport[playerCount];
+        for (int i = 0; i < playerCount; i++) {
+            Transport transport = server.connectInProcess();
+            transport.sendFrame("JOIN:lobby:bench-" + i);
+            transport.flush();
+            connections[i] = transport;
+            startDaemon("bench-reader-" + i, () -> drain(transport));
+        }
+        Thread.sleep(500); // let every registration reach the loop before the match takes the queue
+        server.requestStart();
+        Thread.sleep(200);
+        
+        AtomicLong sent = new AtomicLong();
+        long baseline = server.commandsProcessed();
+        for (int i = 0; i < playerCount; i++) {
+            Transport transport = connections[i];
+            startDaemon("bench-writer-" + i, () -> flood(server, transport, sent, baseline));
+        }
+        Thread.sleep(WARMUP * 1000L);
+        long startCommands = server.commandsProcessed();
+        long startTime = System.nanoTime();
+        Thread.sleep(seconds * 1000L);
+        long commands = server.commandsProcessed() - startCommands;
+        long elapsed = System.nanoTime() - startTime;
+        server.requestStop();
+        stopped.await();
+        
+        System.out.println(playerCount + " players: the loop ran " + (commands * 1_000_000_000L / elapsed)
+                + " hits/s over " + seconds + " s after a " + WARMUP + " s warmup");
+        System.exit(0);
+    }
+    
+    private static void drain(Transport transport) {
+        // Scoreboards have to be read, a connection nobody reads gets evicted
+        Transport.Frame frame = new Transport.Frame(64 * 1024);
+        try {
+            while (transport.receiveFrame(frame) != Transport.END_OF_STREAM) {
+                if (frame.contentEquals("PING")) {
+                    transport.sendFrame("PONG");
+                    transport.flush();
+                }
+            }
+        } catch (IOException e) {
+            // Connection closed at the end of the run
+        }
+    }
+    
+    private static void flood(WhackAMoleServer server, Transport transport, AtomicLong sent, long baseline) {
+        long seq = 0;
+        StringBuilder line = new StringBuilder();
+        while (transport.isOpen()) {
+            if (sent.get() - (server.commandsProcessed() - baseline) > MAX_IN_FLIGHT) {
+                Thread.yield();
+                continue;
+            }
+            line.setLength(0);
+            line.append("HIT:").append(seq % 3).append(':').append(seq / 3 % 3).append(':')
+                    .append(System.currentTimeMillis()).append(':').append(seq);
+            try {
+                transport.sendFrame(line.toString());
+                seq++;
+                sent.incrementAndGet();
+            } catch (IOException e) {
+                // The server's reader is behind, its queue is full
+                Thread.yield();
+            }
+        }
+    }
+    
+    private static void startDaemon(String name, Runnable task) {
+        Thread thread = new Thread(task, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+}
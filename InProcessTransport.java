@@ -0,0 +1,114 @@
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Frames handed between two threads of the same JVM through a queue, no sockets or encoding
+ * involved. Lets simulations run whole matches with many players at memory speed, so game
+ * logic throughput can be measured without network overhead.
+ * Like a socket buffer, each direction holds a bounded number of frames; sending to a peer
+ * that stopped reading fails instead of piling up memory.
+ */
+public class InProcessTransport implements Transport {
+    private static final String CLOSED = new String("CLOSED"); // compared by identity, can't clash with a real frame
+    private static final int MAX_QUEUED = Integer.getInteger("whackamole.inProcessQueue", 4096); // frames per direction
+    
+    // One slot beyond the bound is kept for the close marker, so close() always gets through
+    private final BlockingQueue<String> inbound = new LinkedBlockingQueue<>(MAX_QUEUED + 1);
+    private final AtomicInteger queued = new AtomicInteger(); // frames in inbound, not counting the marker
+    private InProcessTransport peer;
+    private volatile boolean open = true;
+    private volatile int receiveTimeout;
+    
+    private InProcessTransport() {
+    }
+    
+    /** Returns two connected ends, whatever one sends the other receives. */
+    public static InProcessTransport[] pair() {
+        InProcessTransport first = new InProcessTransport();
+        InProcessTransport second = new InProcessTransport();
+        first.peer = second;
+        second.peer = first;
+        return new InProcessTransport[] { first, second };
+    }
+    
+    @Override
+    public int receiveFrame(Frame frame) throws IOException {
+        String message;
+        try {
+            if (receiveTimeout > 0) {
+                message = inbound.poll(receiveTimeout, TimeUnit.MILLISECONDS);
+                if (message == null) {
+                    throw new SocketTimeoutException("No frame within " + receiveTimeout + " ms");
+                }
+            } else {
+                message = inbound.take();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a frame");
+        }
+        
+        frame.length = 0;
+        if (message == CLOSED) {
+            // Leave the marker in place, every later read sees the end of the stream as well
+            inbound.offer(CLOSED);
+            return END_OF_STREAM;
+        }
+        queued.decrementAndGet();
+        if (message.length() > frame.chars.length) {
+            return OVERSIZED;
+        }
+        message.getChars(0, message.length(), frame.chars, 0);
+        frame.length = message.length();
+        return frame.length;
+    }
+    
+    @Override
+    public void sendFrame(String frame) throws IOException {
+        // Delivered straight away, there is nothing to batch
+        if (!open || !peer.open) {
+            throw new IOException("Transport closed");
+        }
+        if (peer.queued.incrementAndGet() > MAX_QUEUED) {
+            peer.queued.decrementAndGet();
+            throw new IOException("Peer is not reading, " + MAX_QUEUED + " frames already queued");
+        }
+        peer.inbound.offer(frame);
+    }
+    
+    @Override
+    public void flush() throws IOException {
+        if (!open || !peer.open) {
+            throw new IOException("Transport closed");
+        }
+    }
+    
+    @Override
+    public void setReceiveTimeout(int millis) {
+        receiveTimeout = millis;
+    }
+    
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+    
+    @Override
+    public String remoteHost() {
+        return null;
+    }
+    
+    @Override
+    public void close() {
+        // Like closing a socket, this unblocks our own reader and ends the peer's stream
+        if (!open) return;
+        open = false;
+        inbound.offer(CLOSED);
+        peer.inbound.offer(CLOSED);
+    }
+}
@@ -0,0 +1,109 @@
+import java.io.IOException;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+
+/**
+ * A connection whose outgoing messages are queued without blocking and written in batches by a
+ * writer thread. The server's clients and the relay's watchers both build on it, so a peer that
+ * stops reading is handled the same way everywhere: sendMessage() fails once too much is waiting,
+ * and a flush stuck in a write shows up in flushStalledMillis() so the owner can evict the peer.
+ */
+public class QueuedConnection {
+    private final Transport transport;
+    private final int maxPending;
+    private volatile long lastSeen;
+    private final AtomicBoolean evicted = new AtomicBoolean();
+    private final Queue<String> outbound = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pending = new AtomicInteger();
+    private final Object writeLock = new Object();
+    private final AtomicLong flushStartedAt = new AtomicLong(); // System.nanoTime(), 0 while no flush runs
+    
+    public QueuedConnection(Transport transport, int maxPending) {
+        this.transport = transport;
+        this.maxPending = maxPending;
+        this.lastSeen = System.currentTimeMillis();
+    }
+    
+    public void touch() {
+        lastSeen = System.currentTimeMillis();
+    }
+    
+    public long idleMillis() {
+        return System.currentTimeMillis() - lastSeen;
+    }
+    
+    /** True only for the first caller, so a peer is evicted once however many checks notice it. */
+    public boolean markEvicted() {
+        return evicted.compareAndSet(false, true);
+    }
+    
+    public boolean sendMessage(String message) {
+        // Queued until the next flush, false once the peer has fallen too far behind
+        if (pending.incrementAndGet() > maxPending) {
+            pending.decrementAndGet();
+            return false;
+        }
+        outbound.add(message);
+        return true;
+    }
+    
+    public int pendingMessages() {
+        return pending.get();
+    }
+    
+    public long flushStalledMillis() {
+        long startedAt = flushStartedAt.get();
+        return startedAt == 0 ? 0 : (System.nanoTime() - startedAt) / 1_000_000;
+    }
+    
+    /**
+     * Hands the queued messages to one of the writers, unless there are none or a flush is still
+     * running; a second one would only queue up behind the first. Reports the characters written,
+     * or the failure, from the writer thread.
+     */
+    public void flushOn(Executor writers, IntConsumer onWritten, Consumer<IOException> onFailure) {
+        if (pending.get() == 0 || !flushStartedAt.compareAndSet(0, Math.max(1, System.nanoTime()))) return;
+        writers.execute(() -> {
+            try {
+                int written = flush();
+                if (written > 0) {
+                    onWritten.accept(written);
+                }
+            } catch (IOException e) {
+                onFailure.accept(e);
+            } finally {
+                flushStartedAt.set(0);
+            }
+        });
+    }
+    
+    public int flush() throws IOException {
+        // Writes every queued message with a single flush, returns the number of characters written
+        synchronized (writeLock) {
+            if (outbound.isEmpty() || !transport.isOpen()) return 0;
+            
+            int written = 0;
+            String message;
+            while ((message = outbound.poll()) != null) {
+                pending.decrementAndGet();
+                transport.sendFrame(message);
+                written += message.length() + 1;
+            }
+            
+            // Fails if the connection is gone
+            transport.flush();
+            return written;
+        }
+    }
+    
+    public void close() throws IOException {
+        // Also unblocks a writer stuck in flush()
+        transport.close();
+    }
+}
@@ -0,0 +1,117 @@
+import java.awt.*;
+import java.util.Date;
+import javax.swing.*;
+
+/**
+ * The server's Swing front end: status labels, start and stop buttons and the log. It only
+ * shows what the {@link WhackAMoleServer} reports, the game itself runs the same without it.
+ */
+public class ServerWindow extends JFrame implements WhackAMoleServer.View {
+    private final WhackAMoleServer server;
+    
+    private JTextArea logArea;
+    private JLabel statusLabel;
+    private JLabel playersLabel;
+    private JLabel matchmakingLabel;
+    private JButton startButton;
+    private JButton stopButton;
+    
+    public ServerWindow(WhackAMoleServer server) {
+        this.server = server;
+        initializeGUI();
+    }
+    
+    /** Shows a window for the server and starts it listening, call from any thread. */
+    public static void open(WhackAMoleServer server) {
+        SwingUtilities.invokeLater(() -> {
+            try {
+                UIManager.setLookAndFeel(UIManager.getSystemLookAndFeelClassName());
+            } catch (Exception e) {
+                // Use default look and feel
+            }
+            ServerWindow window = new ServerWindow(server);
+            server.setView(window);
+            window.setVisible(true);
+            server.start(true);
+        });
+    }
+    
+    private void initializeGUI() {
+        setTitle("Whack a Mole - Server");
+        setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+        setLayout(new BorderLayout());
+        
+        // Top panel
+        JPanel topPanel = new JPanel(new GridLayout(4, 1));
+        statusLabel = new JLabel("Server Status: Starting");
+        playersLabel = new JLabel("Connected Players: 0");
+        matchmakingLabel = new JLabel("Matchmaking: off");
+        
+        JPanel buttonPanel = new JPanel(new FlowLayout());
+        startButton = new JButton("Start Game");
+        stopButton = new JButton("Stop Game");
+        stopButton.setEnabled(false);
+        
+        startButton.addActionListener(e -> server.requestStart());
+        stopButton.addActionListener(e -> server.requestStop());
+        
+        buttonPanel.add(startButton);
+        buttonPanel.add(stopButton);
+        
+        topPanel.add(statusLabel);
+        topPanel.add(playersLabel);
+        topPanel.add(matchmakingLabel);
+        topPanel.add(buttonPanel);
+        
+        // Log area
+        logArea = new JTextArea(20, 50);
+        logArea.setEditable(false);
+        logArea.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
+        JScrollPane scrollPane = new JScrollPane(logArea);
+        scrollPane.setBorder(BorderFactory.createTitledBorder("Server Log"));
+        
+        add(topPanel, BorderLayout.NORTH);
+        add(scrollPane, BorderLayout.CENTER);
+        
+        pack();
+        setLocationRelativeTo(null);
+    }
+    
+    @Override
+    public void log(String message) {
+        SwingUtilities.invokeLater(() -> {
+            String timestamp = new Date().toString();
+            logArea.append("[" + timestamp + "] " + message + "\n");
+            logArea.setCaretPosition(logArea.getDocument().getLength());
+        });
+    }
+    
+    @Override
+    public void alert(String message) {
+        SwingUtilities.invokeLater(() -> JOptionPane.showMessageDialog(this, message));
+    }
+    
+    @Override
+    public void statusChanged(String status) {
+        SwingUtilities.invokeLater(() -> statusLabel.setText(status));
+    }
+    
+    @Override
+    public void gameStateChanged(boolean running) {
+        SwingUtilities.invokeLater(() -> {
+            startButton.setEnabled(!running);
+            stopButton.setEnabled(running);
+        });
+    }
+    
+    @Override
+    public void playersChanged(int players, int spectators) {
+        SwingUtilities.invokeLater(() -> 
+            playersLabel.setText("Connected Players: " + players + ", Spectators: " + spectators));
+    }
+    
+    @Override
+    public void matchmakingChanged(String status) {
+        SwingUtilities.invokeLater(() -> matchmakingLabel.setText(status));
+    }
+}
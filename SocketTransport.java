@@ -0,0 +1,108 @@
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Frames over a TCP socket, one line per frame. Outbound frames are buffered until flush(),
+ * so a batch of messages goes out with a single write.
+ */
+public class SocketTransport implements Transport {
+    private static final int MAX_DISCARD = 64 * 1024; // characters, beyond this the peer is cut off
+    
+    private final Socket socket;
+    private final Reader reader;
+    private final PrintWriter writer;
+    private final char[] buffer = new char[4096];
+    private int position, limit;
+    
+    public SocketTransport(Socket socket) throws IOException {
+        this.socket = socket;
+        this.reader = new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8);
+        this.writer = new PrintWriter(new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8)), false);
+    }
+    
+    public static SocketTransport connect(String host, int port, int timeoutMillis) throws IOException {
+        Socket socket = new Socket();
+        try {
+            socket.connect(new InetSocketAddress(host, port), timeoutMillis);
+            return new SocketTransport(socket);
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+    }
+    
+    @Override
+    public int receiveFrame(Frame frame) throws IOException {
+        // Only one thread reads a connection, so the buffer needs no locking
+        char[] line = frame.chars;
+        int length = 0;
+        int discarded = 0;
+        frame.length = 0;
+        while (true) {
+            if (position == limit) {
+                limit = reader.read(buffer, 0, buffer.length);
+                position = 0;
+                if (limit <= 0) {
+                    limit = 0;
+                    return END_OF_STREAM;
+                }
+            }
+            char c = buffer[position++];
+            if (c == '\n') {
+                if (discarded > 0) return OVERSIZED;
+                if (length > 0 && line[length - 1] == '\r') length--;
+                frame.length = length;
+                return length;
+            }
+            if (discarded > 0 || length == line.length) {
+                if (++discarded > MAX_DISCARD) {
+                    throw new IOException("Line exceeds " + line.length + " characters");
+                }
+            } else {
+                line[length++] = c;
+            }
+        }
+    }
+    
+    @Override
+    public void sendFrame(String frame) {
+        synchronized (writer) {
+            writer.println(frame);
+        }
+    }
+    
+    @Override
+    public void flush() throws IOException {
+        synchronized (writer) {
+            writer.flush();
+            // PrintWriter swallows I/O errors, this is the only place they surface
+            if (writer.checkError()) {
+                throw new IOException("Failed to send to " + socket.getRemoteSocketAddress());
+            }
+        }
+    }
+    
+    @Override
+    public void setReceiveTimeout(int millis) throws IOException {
+        socket.setSoTimeout(millis);
+    }
+    
+    @Override
+    public boolean isOpen() {
+        return !socket.isClosed();
+    }
+    
+    @Override
+    public String remoteHost() {
+        return socket.getInetAddress() == null ? null : socket.getInetAddress().getHostAddress();
+    }
+    
+    @Override
+    public void close() throws IOException {
+        if (!socket.isClosed()) {
+            socket.close();
+        }
+    }
+}
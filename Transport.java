@@ -0,0 +1,121 @@
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * A connection carrying protocol frames, one text line each, between a client and the server.
+ * The game code only talks to this interface, so matches can run over real sockets
+ * ({@link SocketTransport}) or entirely inside one JVM ({@link InProcessTransport}).
+ */
+public interface Transport extends Closeable {
+    int END_OF_STREAM = -1;
+    int OVERSIZED = -2; // the frame did not fit and was dropped, the connection stays usable
+    
+    /**
+     * Blocks for the next frame and copies it into {@code frame}.
+     * Returns the frame length, {@link #END_OF_STREAM} or {@link #OVERSIZED}.
+     */
+    int receiveFrame(Frame frame) throws IOException;
+    
+    /** Queues a frame for sending, it is only guaranteed to leave on {@link #flush()}. */
+    void sendFrame(String frame) throws IOException;
+    
+    void flush() throws IOException;
+    
+    /** Makes receiveFrame() throw a SocketTimeoutException after this long without a frame, 0 waits forever. */
+    void setReceiveTimeout(int millis) throws IOException;
+    
+    boolean isOpen();
+    
+    /** Host of the other end, used to reach the same server over UDP. Null when there is no network address. */
+    String remoteHost();
+    
+    /**
+     * A reusable receive buffer. Frames are decoded in place, so reading and
+     * parsing a HIT does not allocate.
+     */
+    final class Frame {
+        final char[] chars;
+        int length;
+        
+        // Fields of the last frame accepted by parseHit()
+        public int hitX, hitY;
+        public long hitTime, hitSeq;
+        
+        // Set by parseSpawnAck()
+        public long ackSeq;
+        
+        public Frame(int maxLength) {
+            this.chars = new char[maxLength];
+        }
+        
+        public int length() {
+            return length;
+        }
+        
+        public boolean contentEquals(String text) {
+            return length == text.length() && startsWith(text);
+        }
+        
+        public boolean startsWith(String prefix) {
+            if (length < prefix.length()) return false;
+            for (int i = 0; i < prefix.length(); i++) {
+                if (chars[i] != prefix.charAt(i)) return false;
+            }
+            return true;
+        }
+        
+        public boolean parseHit(int gridSize) {
+            // HIT:x:y:time[:seq]
+            int i = 4;
+            int x = 0, y = 0;
+            long time = 0, seq = -1;
+            int field = 0;
+            int digits = 0;
+            long value = 0;
+            for (; i <= length; i++) {
+                char c = i < length ? chars[i] : ':';
+                if (c >= '0' && c <= '9') {
+                    if (++digits > 18) return false;
+                    value = value * 10 + (c - '0');
+                    continue;
+                }
+                if (c != ':' || digits == 0) return false;
+                switch (field++) {
+                    case 0: if (value >= gridSize) return false; x = (int) value; break;
+                    case 1: if (value >= gridSize) return false; y = (int) value; break;
+                    case 2: time = value; break;
+                    case 3: seq = value; break;
+                    default: return false;
+                }
+                digits = 0;
+                value = 0;
+            }
+            if (field < 3) return false;
+            
+            hitX = x;
+            hitY = y;
+            hitTime = time;
+            hitSeq = seq;
+            return true;
+        }
+        
+        public boolean parseSpawnAck() {
+            // SPAWN_ACK:seq
+            int i = "SPAWN_ACK:".length();
+            if (length <= i || length - i > 18) return false;
+            long seq = 0;
+            for (; i < length; i++) {
+                char c = chars[i];
+                if (c < '0' || c > '9') return false;
+                seq = seq * 10 + (c - '0');
+            }
+            ackSeq = seq;
+            return true;
+        }
+        
+        @Override
+        public String toString() {
+            return new String(chars, 0, length);
+        }
+    }
+}
@@ -6,21 +6,45 @@ import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
 import java.io.*;
 import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Timer;
 import java.util.TimerTask;
+import java.util.concurrent.atomic.AtomicReference;
 import javax.swing.*;
 
 public class WhackAMoleClient extends JFrame {
-    private static final String SERVER_HOST = "192.168.100.22";
-    private static final int SERVER_PORT = 12345;
+    private static final String DEFAULT_HOST = System.getProperty("whackamole.host", "192.168.100.22"); // comma separated host[:port] seed nodes
+    private static final int DEFAULT_PORT = Integer.getInteger("whackamole.port", 12345);
+    private static final int CONNECT_TIMEOUT = Integer.getInteger("whackamole.connectTimeoutMs", 3000); // milliseconds
+    private static final int MAX_CONNECT_ATTEMPTS = Integer.getInteger("whackamole.connectAttempts", 6);
+    private static final int MAX_RETRY_DELAY = 8000; // milliseconds
+    private static final int IDLE_TIMEOUT = Integer.getInteger("whackamole.idleTimeoutMs", 15000); // milliseconds
+    private static final int UDP_REDUNDANCY = Integer.getInteger("whackamole.udpRedundancy", 2); // copies per datagram
+    private static final int UDP_HELLO_ATTEMPTS = 5;
+    private static final String ROOM = System.getProperty("whackamole.room", "lobby");
+    private static final int MAX_REDIRECTS = 3;
+    private static final int MAX_FRAME_LENGTH = 64 * 1024; // characters, scoreboards grow with the room
+    private static final boolean SPECTATOR = Boolean.getBoolean("whackamole.spectate"); // watch only, e.g. through a relay
     
-    private Socket socket;
-    private BufferedReader in;
-    private PrintWriter out;
+    private static final long launchTime = System.nanoTime();
+    
+    private final List<String> seedHosts = new ArrayList<>(); // any node will do, it redirects to the room's owner
+    private final List<Integer> seedPorts = new ArrayList<>();
+    private volatile Transport transport;
+    private final Transport.Frame frame = new Transport.Frame(MAX_FRAME_LENGTH); // only used by the network thread
     private String playerName;
     
+    // Optional UDP side channel for MOLE_SPAWN and HIT, TCP stays the fallback
+    private volatile DatagramSocket udpSocket;
+    private String udpToken;
+    private volatile boolean udpReady = false;
+    private long lastSpawnSeq = -1;
+    private long hitSeq = 0;
+    
     // GUI Components
     private JButton[][] gameButtons;
     private JLabel statusLabel;
@@ -37,11 +61,29 @@ public class WhackAMoleClient extends JFrame {
     private boolean isExtraTime = false;
     private Timer gameTimer;
     private Timer moleTimer;
-    private boolean connected = false;
+    private volatile boolean connected = false;
+    
+    // Player ID -> name, from PLAYER/PLAYER_LEFT. Only touched on the TCP reader thread.
+    private final Map<Integer, String> roster = new HashMap<>();
+    
+    // Decoded events waiting for the EDT, newest wins
+    private final AtomicReference<MoleSpawnEvent> pendingSpawn = new AtomicReference<>();
+    private final AtomicReference<ScoresEvent> pendingScores = new AtomicReference<>();
+    
+    // Spawn-to-pixel latency, only touched on the EDT
+    private long spawnLatencyCount = 0;
+    private long spawnLatencyTotal = 0; // nanoseconds
+    private long spawnLatencyMax = 0; // nanoseconds
     
-    public WhackAMoleClient() {
+    public WhackAMoleClient(String serverHosts, int serverPort) {
+        for (String seed : serverHosts.split(",")) {
+            seed = seed.trim();
+            if (seed.isEmpty()) continue;
+            int separator = seed.lastIndexOf(':');
+            seedHosts.add(separator < 0 ? seed : seed.substring(0, separator));
+            seedPorts.add(separator < 0 ? serverPort : Integer.parseInt(seed.substring(separator + 1)));
+        }
         initializeGUI();
-        connectToServer();
     }
     
     private void initializeGUI() {
@@ -51,6 +93,11 @@ public class WhackAMoleClient extends JFrame {
         
         // Add window closing listener to properly disconnect
         addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowOpened(WindowEvent e) {
+                System.out.println("Time to first frame: " + (System.nanoTime() - launchTime) / 1_000_000 + " ms");
+            }
+            
             @Override
             public void windowClosing(WindowEvent e) {
                 disconnect();
@@ -114,84 +161,351 @@ public class WhackAMoleClient extends JFrame {
     
     private void connectToServer() {
         // Get player name
-        String name = JOptionPane.showInputDialog(this, "Enter your name:", "Player Name", JOptionPane.QUESTION_MESSAGE);
-        if (name == null || name.trim().isEmpty()) {
-            System.exit(0);
+        if (!SPECTATOR) {
+            String name = JOptionPane.showInputDialog(this, "Enter your name:", "Player Name", JOptionPane.QUESTION_MESSAGE);
+            if (name == null || name.trim().isEmpty()) {
+                System.exit(0);
+            }
+            playerName = name.trim();
         }
-        playerName = name.trim();
         
-        try {
-            socket = new Socket(SERVER_HOST, SERVER_PORT);
-            in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-            out = new PrintWriter(socket.getOutputStream(), true);
-            
-            // Send player name
-            out.println(playerName);
-            
-            // Check connection response
-            String response = in.readLine();
-            if ("NAME_TAKEN".equals(response)) {
-                JOptionPane.showMessageDialog(this, "Name already taken!", "Error", JOptionPane.ERROR_MESSAGE);
-                System.exit(0);
-            } else if ("CONNECTED".equals(response)) {
-                connected = true;
-                statusLabel.setText("Connected as: " + playerName);
-                setTitle("Whack a Mole - " + playerName);
-                
-                // Start listening for server messages
-                new Thread(this::listenToServer).start();
+        if (SPECTATOR) {
+            canPlay = false;
+        }
+        statusLabel.setText("Connecting to " + seedHosts.get(0) + ":" + seedPorts.get(0)
+                + (seedHosts.size() > 1 ? " (+" + (seedHosts.size() - 1) + " more)" : "") + "...");
+        
+        // Connect and handshake off the EDT so the window stays responsive
+        new Thread(this::connectWithRetry).start();
+    }
+    
+    private void connectWithRetry() {
+        // Runs for the whole session. A lost connection goes back through the seed nodes, which
+        // also finds the room's new owner when the node we were on died.
+        boolean reconnecting = false;
+        while (connectToAnySeed(reconnecting)) {
+            if (!listenToServer()) return; // Left on purpose
+            reconnecting = true;
+            SwingUtilities.invokeLater(() -> {
+                stopGame();
+                statusLabel.setText("Connection lost, reconnecting...");
+            });
+        }
+    }
+    
+    private boolean connectToAnySeed(boolean reconnecting) {
+        // True once joined, false after giving up, which has already told the player
+        String lastError = null;
+        for (int attempt = 1; attempt <= MAX_CONNECT_ATTEMPTS; attempt++) {
+            for (int seed = 0; seed < seedHosts.size(); seed++) {
+                String node = seedHosts.get(seed) + ":" + seedPorts.get(seed);
+                long attemptStart = System.nanoTime();
+                try {
+                    // Check connection response
+                    String response = openConnection(seedHosts.get(seed), seedPorts.get(seed));
+                    // After a dropped connection our old session may not have timed out yet, so a
+                    // taken name is retried then; the backoff outlasts the server's idle timeout
+                    if ("NAME_TAKEN".equals(response) && !reconnecting) {
+                        SwingUtilities.invokeLater(() -> {
+                            JOptionPane.showMessageDialog(this, "Name already taken!", "Error", JOptionPane.ERROR_MESSAGE);
+                            System.exit(0);
+                        });
+                        return false;
+                    } else if ("CONNECTED".equals(response) || "SPECTATING".equals(response)) {
+                        System.out.println("Handshake with " + node + " completed in " + (System.nanoTime() - attemptStart) / 1_000_000
+                                + " ms (attempt " + attempt + ")");
+                        connected = true;
+                        SwingUtilities.invokeLater(() -> {
+                            if (SPECTATOR) {
+                                statusLabel.setText("Watching room: " + ROOM);
+                                setTitle("Whack a Mole - Spectator");
+                            } else {
+                                statusLabel.setText("Connected as: " + playerName);
+                                setTitle("Whack a Mole - " + playerName);
+                            }
+                        });
+                        return true;
+                    }
+                    lastError = node + ": unexpected response " + response;
+                } catch (IOException e) {
+                    lastError = node + ": " + e.getMessage();
+                }
+                closeConnection();
             }
             
-        } catch (IOException e) {
-            JOptionPane.showMessageDialog(this, "Failed to connect to server: " + e.getMessage(), 
+            if (attempt < MAX_CONNECT_ATTEMPTS) {
+                // Exponential backoff between attempts
+                int delay = Math.min(MAX_RETRY_DELAY, 500 << (attempt - 1));
+                int nextAttempt = attempt + 1;
+                SwingUtilities.invokeLater(() -> statusLabel.setText("Connection failed, retrying in "
+                        + (delay / 1000.0) + "s (attempt " + nextAttempt + "/" + MAX_CONNECT_ATTEMPTS + ")"));
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException e) {
+                    return false;
+                }
+            }
+        }
+        
+        String error = lastError;
+        SwingUtilities.invokeLater(() -> {
+            JOptionPane.showMessageDialog(this, "Failed to connect to server: " + error, 
                                         "Connection Error", JOptionPane.ERROR_MESSAGE);
             System.exit(0);
+        });
+        return false;
+    }
+    
+    private String openConnection(String host, int port) throws IOException {
+        // Join our room, following redirects to the cluster node that owns it
+        for (int hop = 0; hop <= MAX_REDIRECTS; hop++) {
+            closeConnection();
+            transport = SocketTransport.connect(host, port, CONNECT_TIMEOUT);
+            // The server pings regularly, so a silent connection means the server is gone
+            transport.setReceiveTimeout(IDLE_TIMEOUT);
+            lastSpawnSeq = -1; // Sequence numbers and player IDs are per server
+            roster.clear();
+            
+            send(SPECTATOR ? "SPECTATE:" + ROOM : "JOIN:" + ROOM + ":" + playerName);
+            
+            String response = receive();
+            if (response == null || !response.startsWith("REDIRECT:")) {
+                return response;
+            }
+            String target = response.substring("REDIRECT:".length());
+            int separator = target.lastIndexOf(':');
+            try {
+                host = target.substring(0, separator);
+                port = Integer.parseInt(target.substring(separator + 1));
+            } catch (RuntimeException e) {
+                // Counts as a failed attempt, connectWithRetry() tries again
+                throw new IOException("Malformed redirect: " + response);
+            }
+        }
+        throw new IOException("Too many redirects");
+    }
+    
+    private void closeConnection() {
+        udpReady = false;
+        try {
+            if (transport != null) {
+                transport.close();
+            }
+        } catch (IOException e) {
+            // Ignore errors while switching connections
+        }
+        if (udpSocket != null) {
+            udpSocket.close();
         }
     }
     
-    private void listenToServer() {
+    private void send(String message) {
+        // Send failures surface as a dead connection in listenToServer(), which owns reconnecting
+        Transport current = transport;
+        if (current == null) return;
+        try {
+            current.sendFrame(message);
+            current.flush();
+        } catch (IOException e) {
+            // Ignored here, see above
+        }
+    }
+    
+    private String receive() throws IOException {
+        // Next server message, null once the connection is closed
+        int length;
+        do {
+            length = transport.receiveFrame(frame);
+        } while (length == Transport.OVERSIZED);
+        return length == Transport.END_OF_STREAM ? null : frame.toString();
+    }
+    
+    private boolean listenToServer() {
+        // Returns true when the connection was lost, false when the player left
         try {
             String message;
-            while (connected && (message = in.readLine()) != null) {
-                handleServerMessage(message);
+            while (connected && (message = receive()) != null) {
+                try {
+                    routeServerMessage(message);
+                } catch (RuntimeException e) {
+                    // Same as in handleServerMessage(), a malformed line must not take down the network thread
+                    System.err.println("Ignoring malformed server message: " + message);
+                }
             }
         } catch (IOException e) {
-            if (connected) {
-                SwingUtilities.invokeLater(() -> {
-                    statusLabel.setText("Disconnected from server");
-                    JOptionPane.showMessageDialog(this, "Lost connection to server", "Connection Lost", JOptionPane.WARNING_MESSAGE);
-                });
+            // Handled below like the server closing the connection
+        }
+        if (!connected) return false;
+        connected = false;
+        closeConnection();
+        return true;
+    }
+    
+    private void routeServerMessage(String message) throws IOException {
+        // Connection-level messages are handled here, game messages go on to handleServerMessage()
+        if (message.equals("PING")) {
+            // Answer heartbeats straight from the network thread
+            send("PONG");
+        } else if (message.startsWith("REDIRECT:")) {
+            // Our room moved to another node, rejoin it there
+            String target = message.substring("REDIRECT:".length());
+            int separator = target.lastIndexOf(':');
+            String host = target.substring(0, separator);
+            int port = Integer.parseInt(target.substring(separator + 1));
+            String response = openConnection(host, port);
+            if (!"CONNECTED".equals(response) && !"SPECTATING".equals(response)) {
+                throw new IOException("Could not rejoin room " + ROOM + ": " + response);
+            }
+            SwingUtilities.invokeLater(() -> statusLabel.setText("Connected as: " + playerName + " (" + target + ")"));
+        } else if (message.startsWith("UDP:")) {
+            String[] parts = message.split(":");
+            startUdpChannel(Integer.parseInt(parts[1]), parts[2]);
+        } else if (!message.startsWith("MOLE_SPAWN:") || acceptSpawn(message)) {
+            handleServerMessage(message);
+        }
+    }
+    
+    private void startUdpChannel(int port, String token) {
+        String host = transport.remoteHost();
+        if (host == null) return; // Not a network connection, TCP-style frames only
+        try {
+            DatagramSocket channel = new DatagramSocket();
+            channel.connect(new InetSocketAddress(host, port));
+            udpSocket = channel;
+            udpToken = token;
+            new Thread(() -> listenToUdp(channel)).start();
+        } catch (IOException e) {
+            // Stay on TCP only
+            udpSocket = null;
+        }
+    }
+    
+    private void listenToUdp(DatagramSocket channel) {
+        byte[] buffer = new byte[512];
+        try {
+            // Register our datagram address with the server, retrying since HELLO itself may be lost
+            channel.setSoTimeout(500);
+            for (int attempt = 0; attempt < UDP_HELLO_ATTEMPTS && !udpReady; attempt++) {
+                sendDatagram("HELLO:" + udpToken);
+                try {
+                    DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+                    channel.receive(packet);
+                    udpReady = "UDP_OK".equals(new String(packet.getData(), 0, packet.getLength(), StandardCharsets.UTF_8));
+                } catch (SocketTimeoutException e) {
+                    // Try again
+                }
+            }
+            if (!udpReady) {
+                channel.close();
+                return;
+            }
+            
+            channel.setSoTimeout(0);
+            while (connected && !channel.isClosed()) {
+                DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+                channel.receive(packet);
+                String message = new String(packet.getData(), 0, packet.getLength(), StandardCharsets.UTF_8);
+                if (message.startsWith("MOLE_SPAWN:") && acceptSpawn(message)) {
+                    handleServerMessage(message);
+                }
+            }
+        } catch (IOException e) {
+            // Channel lost, TCP keeps delivering everything
+        } catch (RuntimeException e) {
+            // Malformed datagram, give up on UDP
+        } finally {
+            // A newer channel may already have replaced this one after a redirect
+            if (udpSocket == channel) {
+                udpReady = false;
             }
         }
     }
     
+    private synchronized boolean acceptSpawn(String message) {
+        // MOLE_SPAWN:x:y:seq arrives on both channels, only the first copy is shown
+        String[] parts = message.split(":");
+        if (parts.length < 4) return true;
+        long seq = Long.parseLong(parts[3]);
+        if (seq <= lastSpawnSeq) return false;
+        lastSpawnSeq = seq;
+        return true;
+    }
+    
+    private void sendDatagram(String message) {
+        byte[] data = message.getBytes(StandardCharsets.UTF_8);
+        try {
+            for (int i = 0; i < UDP_REDUNDANCY; i++) {
+                udpSocket.send(new DatagramPacket(data, data.length));
+            }
+        } catch (IOException e) {
+            udpReady = false;
+        }
+    }
+    
     private void handleServerMessage(String message) {
-        SwingUtilities.invokeLater(() -> {
-            if (message.startsWith("GAME_START:")) {
-                int duration = Integer.parseInt(message.split(":")[1]);
+        try {
+            decodeServerMessage(message);
+        } catch (RuntimeException e) {
+            // A malformed line must not take down the network thread
+            System.err.println("Ignoring malformed server message: " + message);
+        }
+    }
+    
+    private void decodeServerMessage(String message) {
+        // Decode on the network thread, the EDT only applies ready-made events
+        if (message.startsWith("GAME_START:")) {
+            String[] parts = message.split(":");
+            int duration = Integer.parseInt(parts[1]);
+            // Players still queued for the next match only watch this one
+            boolean watching = parts.length > 2 && parts[2].equals("WATCH");
+            SwingUtilities.invokeLater(() -> {
                 isExtraTime = false;
-                canPlay = true; // Everyone can play in normal game
+                canPlay = !SPECTATOR && !watching;
                 startGame(duration);
-            } else if (message.startsWith("MOLE_SPAWN:")) {
-                String[] parts = message.split(":");
-                int x = Integer.parseInt(parts[1]);
-                int y = Integer.parseInt(parts[2]);
-                showMole(x, y);
-            } else if (message.startsWith("SCORES:")) {
-                updateScores(message);
-            } else if (message.startsWith("GAME_END:")) {
-                String[] parts = message.split(":");
-                String winner = parts[1];
-                int winningScore = Integer.parseInt(parts[2]);
-                endGame(winner, winningScore);
-            } else if (message.equals("GAME_STOPPED")) {
-                stopGame();
-            } else if (message.startsWith("EXTRA_TIME:")) {
-                String[] parts = message.split(":");
-                int extraTime = Integer.parseInt(parts[1]);
-                String activePlayersStr = parts[2];
-                String[] activePlayers = activePlayersStr.split(",");
-                
+            });
+        } else if (message.startsWith("QUEUED:")) {
+            int position = Integer.parseInt(message.substring("QUEUED:".length()));
+            SwingUtilities.invokeLater(() -> {
+                if (!gameActive) {
+                    statusLabel.setText("Waiting for the next match (position " + position + ")");
+                    statusLabel.setForeground(Color.BLACK);
+                }
+            });
+        } else if (message.startsWith("MOLE_SPAWN:")) {
+            String[] parts = message.split(":");
+            // MOLE_SPAWN:x:y[:seq[:visibleMillis]], the server stretches the visible time when it is under load
+            long seq = parts.length > 3 ? Long.parseLong(parts[3]) : -1;
+            int visibleMillis = parts.length > 4 ? Integer.parseInt(parts[4]) : 2000;
+            MoleSpawnEvent spawn = new MoleSpawnEvent(Integer.parseInt(parts[1]), Integer.parseInt(parts[2]), seq, visibleMillis, System.nanoTime());
+            // Only the newest mole matters, an older one still queued is simply replaced
+            if (pendingSpawn.getAndSet(spawn) == null) {
+                SwingUtilities.invokeLater(this::renderPendingSpawn);
+            }
+        } else if (message.startsWith("PLAYER:")) {
+            String[] parts = message.split(":", 3);
+            roster.put(Integer.parseInt(parts[1]), parts[2]);
+        } else if (message.startsWith("PLAYER_LEFT:")) {
+            roster.remove(Integer.parseInt(message.substring("PLAYER_LEFT:".length())));
+        } else if (message.startsWith("SCORES:")) {
+            ScoresEvent scores = new ScoresEvent(message, roster);
+            // Latest wins, so at most one scoreboard is ever waiting on the EDT
+            if (pendingScores.getAndSet(scores) == null) {
+                SwingUtilities.invokeLater(this::renderPendingScores);
+            }
+        } else if (message.startsWith("GAME_END:")) {
+            String[] parts = message.split(":");
+            String winner = parts[1];
+            int winningScore = Integer.parseInt(parts[2]);
+            SwingUtilities.invokeLater(() -> endGame(winner, winningScore));
+        } else if (message.equals("GAME_STOPPED")) {
+            SwingUtilities.invokeLater(this::stopGame);
+        } else if (message.startsWith("EXTRA_TIME:")) {
+            String[] parts = message.split(":");
+            int extraTime = Integer.parseInt(parts[1]);
+            String activePlayersStr = parts.length > 2 ? parts[2] : "";
+            String[] activePlayers = activePlayersStr.split(",");
+            
+            SwingUtilities.invokeLater(() -> {
                 // Check if this player is in the active players list
                 canPlay = false;
                 for (String activePlayer : activePlayers) {
@@ -214,8 +528,48 @@ public class WhackAMoleClient extends JFrame {
                 }
                 
                 startGame(extraTime);
+            });
+        }
+    }
+    
+    private void renderPendingSpawn() {
+        MoleSpawnEvent spawn = pendingSpawn.getAndSet(null);
+        if (spawn == null) return;
+        
+        showMole(spawn.x, spawn.y, spawn.visibleMillis);
+        if (gameActive) {
+            // Paint right away so the measurement covers the actual pixels
+            JButton button = gameButtons[spawn.x][spawn.y];
+            button.paintImmediately(0, 0, button.getWidth(), button.getHeight());
+            long latency = System.nanoTime() - spawn.receivedAt;
+            spawnLatencyCount++;
+            spawnLatencyTotal += latency;
+            spawnLatencyMax = Math.max(spawnLatencyMax, latency);
+            
+            // Tells the server how far behind we are, it paces spawns on that
+            if (canPlay && spawn.seq >= 0) {
+                send("SPAWN_ACK:" + spawn.seq);
             }
-        });
+        }
+    }
+    
+    private void renderPendingScores() {
+        // A spawn that arrived meanwhile goes first
+        renderPendingSpawn();
+        
+        ScoresEvent scores = pendingScores.getAndSet(null);
+        if (scores != null) {
+            updateScores(scores);
+        }
+    }
+    
+    private void reportSpawnLatency() {
+        if (spawnLatencyCount == 0) return;
+        System.out.printf("Spawn-to-pixel latency: avg %.2f ms, max %.2f ms over %d spawns%n",
+                spawnLatencyTotal / 1e6 / spawnLatencyCount, spawnLatencyMax / 1e6, spawnLatencyCount);
+        spawnLatencyCount = 0;
+        spawnLatencyTotal = 0;
+        spawnLatencyMax = 0;
     }
     
     private void startGame(int duration) {
@@ -230,9 +584,12 @@ public class WhackAMoleClient extends JFrame {
                 statusLabel.setText("👀 EXTRA TIME - Mode Menonton");
                 statusLabel.setForeground(Color.BLUE);
             }
-        } else {
+        } else if (canPlay || SPECTATOR) {
             statusLabel.setText("Game in progress!");
             statusLabel.setForeground(Color.BLACK);
+        } else {
+            statusLabel.setText("👀 Watching, you are queued for the next match");
+            statusLabel.setForeground(Color.BLUE);
         }
         
         timeLabel.setText("Time: " + timeRemaining);
@@ -286,7 +643,7 @@ public class WhackAMoleClient extends JFrame {
         }, 1000, 1000);
     }
     
-    private void showMole(int x, int y) {
+    private void showMole(int x, int y, int visibleMillis) {
         if (!gameActive) return;
         
         // Clear all moles first
@@ -310,7 +667,7 @@ public class WhackAMoleClient extends JFrame {
             gameButtons[x][y].setBackground(Color.ORANGE);
         }
         
-        // Hide mole after 2 seconds
+        // Hide mole after 2 seconds, or longer when the server has widened the hit window
         if (moleTimer != null) {
             moleTimer.cancel();
         }
@@ -329,7 +686,7 @@ public class WhackAMoleClient extends JFrame {
                     }
                 });
             }
-        }, 2000);
+        }, visibleMillis);
     }
     
     private void hitMole(int x, int y) {
@@ -345,8 +702,14 @@ public class WhackAMoleClient extends JFrame {
         }
         
         // Send hit to server
-        if (connected && out != null) {
-            out.println("HIT:" + x + ":" + y + ":" + System.currentTimeMillis());
+        if (connected && transport != null) {
+            long hitTime = System.currentTimeMillis();
+            hitSeq++;
+            if (udpReady) {
+                sendDatagram("HIT:" + udpToken + ":" + hitSeq + ":" + x + ":" + y + ":" + hitTime);
+            }
+            // Always sent over TCP as well, the server keeps whichever copy arrives first
+            send("HIT:" + x + ":" + y + ":" + hitTime + ":" + hitSeq);
         }
         
         // Check if there's a mole at this position
@@ -389,9 +752,7 @@ public class WhackAMoleClient extends JFrame {
         }
     }
     
-    private void updateScores(String message) {
-        // Parse scores message: SCORES:player1,score1:player2,score2:...
-        String[] parts = message.split(":");
+    private void updateScores(ScoresEvent scores) {
         StringBuilder scoresText = new StringBuilder();
         
         if (isExtraTime) {
@@ -402,47 +763,32 @@ public class WhackAMoleClient extends JFrame {
             scoresText.append("=".repeat(20)).append("\n");
         }
         
-        Map<String, Integer> scores = new HashMap<>();
-        
-        for (int i = 1; i < parts.length; i++) {
-            String[] playerScoreParts = parts[i].split(",");
-            if (playerScoreParts.length == 2) {
-                String player = playerScoreParts[0];
-                int score = Integer.parseInt(playerScoreParts[1]);
-                scores.put(player, score);
+        // Already sorted on the network thread
+        for (Map.Entry<String, Integer> entry : scores.sorted) {
+            String name = entry.getKey();
+            int score = entry.getValue();
+            
+            if (name.equals(playerName)) {
+                playerScore = score;
+                scoreLabel.setText("Your Score: " + score);
                 
-                if (player.equals(playerName)) {
-                    playerScore = score;
-                    scoreLabel.setText("Your Score: " + score);
+                if (isExtraTime && canPlay) {
+                    scoresText.append("🔥 ").append(name).append(": ").append(score).append(" (ACTIVE) 🔥\n");
+                } else if (isExtraTime && !canPlay) {
+                    scoresText.append("👀 ").append(name).append(": ").append(score).append(" (WATCHING) 👀\n");
+                } else {
+                    scoresText.append("► ").append(name).append(": ").append(score).append(" ◄\n");
                 }
-            }
-        }
-        
-        // Sort and display scores
-        scores.entrySet().stream()
-            .sorted(Map.Entry.<String, Integer>comparingByValue().reversed())
-            .forEach(entry -> {
-                String name = entry.getKey();
-                int score = entry.getValue();
-                
-                if (name.equals(playerName)) {
-                    if (isExtraTime && canPlay) {
-                        scoresText.append("🔥 ").append(name).append(": ").append(score).append(" (ACTIVE) 🔥\n");
-                    } else if (isExtraTime && !canPlay) {
-                        scoresText.append("👀 ").append(name).append(": ").append(score).append(" (WATCHING) 👀\n");
-                    } else {
-                        scoresText.append("► ").append(name).append(": ").append(score).append(" ◄\n");
-                    }
+            } else {
+                if (isExtraTime) {
+                    // Check if this player is active in extra time by checking if they have recent score updates
+                    // This is a simple heuristic - in a real implementation, you might want the server to send this info
+                    scoresText.append("  ").append(name).append(": ").append(score).append("\n");
                 } else {
-                    if (isExtraTime) {
-                        // Check if this player is active in extra time by checking if they have recent score updates
-                        // This is a simple heuristic - in a real implementation, you might want the server to send this info
-                        scoresText.append("  ").append(name).append(": ").append(score).append("\n");
-                    } else {
-                        scoresText.append("  ").append(name).append(": ").append(score).append("\n");
-                    }
+                    scoresText.append("  ").append(name).append(": ").append(score).append("\n");
                 }
-            });
+            }
+        }
         
         scoresArea.setText(scoresText.toString());
     }
@@ -450,10 +796,11 @@ public class WhackAMoleClient extends JFrame {
     private void endGame(String winner, int winningScore) {
         gameActive = false;
         isExtraTime = false;
-        canPlay = true;
+        canPlay = !SPECTATOR;
         
         if (gameTimer != null) gameTimer.cancel();
         if (moleTimer != null) moleTimer.cancel();
+        reportSpawnLatency();
         
         // Disable all buttons
         for (int i = 0; i < 3; i++) {
@@ -479,10 +826,11 @@ public class WhackAMoleClient extends JFrame {
     private void stopGame() {
         gameActive = false;
         isExtraTime = false;
-        canPlay = true;
+        canPlay = !SPECTATOR;
         
         if (gameTimer != null) gameTimer.cancel();
         if (moleTimer != null) moleTimer.cancel();
+        reportSpawnLatency();
         
         // Disable all buttons
         for (int i = 0; i < 3; i++) {
@@ -502,17 +850,55 @@ public class WhackAMoleClient extends JFrame {
     private void disconnect() {
         connected = false;
         try {
-            if (out != null) {
-                out.println("DISCONNECT");
+            if (transport != null) {
+                send("DISCONNECT");
+                transport.close();
             }
-            if (socket != null && !socket.isClosed()) {
-                socket.close();
+            if (udpSocket != null) {
+                udpSocket.close();
             }
         } catch (IOException e) {
             // Ignore errors during disconnect
         }
     }
     
+    private static class MoleSpawnEvent {
+        private final int x, y;
+        private final long seq;
+        private final int visibleMillis;
+        private final long receivedAt; // System.nanoTime() on the network thread
+        
+        public MoleSpawnEvent(int x, int y, long seq, int visibleMillis, long receivedAt) {
+            this.x = x;
+            this.y = y;
+            this.seq = seq;
+            this.visibleMillis = visibleMillis;
+            this.receivedAt = receivedAt;
+        }
+    }
+    
+    private static class ScoresEvent {
+        private final List<Map.Entry<String, Integer>> sorted;
+        
+        public ScoresEvent(String message, Map<Integer, String> roster) {
+            // Parse scores message: SCORES:id1,score1:id2,score2:...
+            String[] parts = message.split(":");
+            Map<String, Integer> scores = new HashMap<>();
+            for (int i = 1; i < parts.length; i++) {
+                String[] playerScoreParts = parts[i].split(",");
+                if (playerScoreParts.length == 2) {
+                    // Skip IDs whose PLAYER line has not arrived yet
+                    String name = roster.get(Integer.parseInt(playerScoreParts[0]));
+                    if (name != null) {
+                        scores.put(name, Integer.parseInt(playerScoreParts[1]));
+                    }
+                }
+            }
+            sorted = new ArrayList<>(scores.entrySet());
+            sorted.sort(Map.Entry.<String, Integer>comparingByValue().reversed());
+        }
+    }
+    
     public static void main(String[] args) {
         SwingUtilities.invokeLater(() -> {
             try {
@@ -520,7 +906,14 @@ public class WhackAMoleClient extends JFrame {
             } catch (Exception e) {
                 // Use default look and feel
             }
-            new WhackAMoleClient().setVisible(true);
+            // Host and port from the command line, falling back to system properties
+            String host = args.length > 0 ? args[0] : DEFAULT_HOST;
+            int port = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_PORT;
+            
+            // Show the window first, then ask for the name and connect in the background
+            WhackAMoleClient client = new WhackAMoleClient(host, port);
+            client.setVisible(true);
+            client.connectToServer();
         });
     }
 }
\ No newline at end of file
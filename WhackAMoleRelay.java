@@ -0,0 +1,330 @@
+import java.io.*;
+import java.net.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Headless spectator relay: subscribes once to a room on the game server and fans
+// the event stream out to any number of watchers, so the game server pays for one
+// connection no matter how large the audience is.
+public class WhackAMoleRelay {
+    private static final String UPSTREAM_HOST = System.getProperty("whackamole.host", "localhost");
+    private static final int UPSTREAM_PORT = Integer.getInteger("whackamole.port", 12345);
+    private static final String ROOM = System.getProperty("whackamole.room", "lobby");
+    private static final int RELAY_PORT = Integer.getInteger("whackamole.relayPort", 12350);
+    private static final int HEARTBEAT_INTERVAL = Integer.getInteger("whackamole.heartbeatMs", 5000); // milliseconds
+    private static final int IDLE_TIMEOUT = Integer.getInteger("whackamole.idleTimeoutMs", 15000); // milliseconds
+    private static final int TICK_INTERVAL = Integer.getInteger("whackamole.tickMs", 25); // milliseconds
+    private static final int MAX_PENDING_MESSAGES = Integer.getInteger("whackamole.maxPending", 1000); // per watcher
+    private static final int WRITE_DEADLINE = Integer.getInteger("whackamole.writeDeadlineMs", 20 * TICK_INTERVAL); // milliseconds a flush may block before the watcher is evicted
+    private static final int MAX_REDIRECTS = 3;
+    private static final int MAX_RECONNECT_DELAY = 10000; // milliseconds
+    private static final int MOLE_VISIBLE_TIME = 2000; // milliseconds, unless the spawn says otherwise
+    private static final int MAX_FRAME_LENGTH = 64 * 1024; // characters, scoreboards grow with the room
+    private static final int MAX_LINE_LENGTH = Integer.getInteger("whackamole.maxLineLength", 256); // characters, from watchers
+
+    private ServerSocket serverSocket;
+    private Map<Integer, Watcher> watchers;
+    private AtomicInteger watcherIds;
+    private ScheduledExecutorService scheduler;
+    private ExecutorService watcherWriters; // one flush per watcher at a time, a stuck watcher only blocks its own
+
+    // Latest room state, replayed to watchers joining mid-match. Guarded by this.
+    private String phaseMessage; // GAME_START or EXTRA_TIME, null between matches
+    private String phasePlayers;
+    private int phaseDuration;
+    private long phaseReceivedAt;
+    private String lastScores;
+    private final Map<String, String> roster = new LinkedHashMap<>(); // player ID -> PLAYER line
+    private String lastMole;
+    private long moleReceivedAt;
+    private int moleVisibleTime;
+
+    public WhackAMoleRelay() {
+        watchers = new ConcurrentHashMap<>();
+        watcherIds = new AtomicInteger();
+        scheduler = Executors.newScheduledThreadPool(2);
+        watcherWriters = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "watcher-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    private void start() throws IOException {
+        serverSocket = new ServerSocket(RELAY_PORT);
+        logMessage("Relay for room " + ROOM + " listening on port " + RELAY_PORT);
+
+        // Accept watchers in background thread
+        new Thread(() -> {
+            while (!serverSocket.isClosed()) {
+                try {
+                    Transport transport = new SocketTransport(serverSocket.accept());
+                    new Thread(() -> handleWatcher(transport)).start();
+                } catch (IOException e) {
+                    if (!serverSocket.isClosed()) {
+                        logMessage("Error accepting watcher: " + e.getMessage());
+                    }
+                }
+            }
+        }).start();
+
+        new Thread(this::followUpstream).start();
+
+        scheduler.scheduleAtFixedRate(this::flushWatchers, TICK_INTERVAL, TICK_INTERVAL, TimeUnit.MILLISECONDS);
+        scheduler.scheduleAtFixedRate(this::sendHeartbeats, HEARTBEAT_INTERVAL, HEARTBEAT_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    private void followUpstream() {
+        int failures = 0;
+        while (true) {
+            try (Transport upstream = openUpstream(UPSTREAM_HOST, UPSTREAM_PORT)) {
+                failures = 0;
+
+                Transport.Frame frame = new Transport.Frame(MAX_FRAME_LENGTH);
+                int length;
+                while ((length = upstream.receiveFrame(frame)) != Transport.END_OF_STREAM) {
+                    if (length == Transport.OVERSIZED) {
+                        logMessage("Dropped an upstream message longer than " + MAX_FRAME_LENGTH + " characters");
+                        continue;
+                    }
+                    String message = frame.toString();
+                    if (message.equals("PING")) {
+                        upstream.sendFrame("PONG");
+                        upstream.flush();
+                    } else if (message.startsWith("REDIRECT:")) {
+                        // The room moved to another node, resubscribe through the directory
+                        logMessage("Room " + ROOM + " moved to " + message.substring("REDIRECT:".length()));
+                        break;
+                    } else {
+                        onUpstreamMessage(message);
+                    }
+                }
+                logMessage("Upstream closed the connection");
+            } catch (IOException | RuntimeException e) {
+                logMessage("Upstream connection failed: " + e.getMessage());
+            }
+
+            // Back off before resubscribing, watchers keep their connection meanwhile
+            int delay = Math.min(MAX_RECONNECT_DELAY, 500 << Math.min(failures++, 5));
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    private Transport openUpstream(String host, int port) throws IOException {
+        // Subscribe to our room, following redirects to the node that owns it
+        Transport.Frame frame = new Transport.Frame(MAX_FRAME_LENGTH);
+        for (int hop = 0; hop <= MAX_REDIRECTS; hop++) {
+            Transport upstream = SocketTransport.connect(host, port, IDLE_TIMEOUT);
+            try {
+                upstream.setReceiveTimeout(IDLE_TIMEOUT);
+                upstream.sendFrame("SPECTATE:" + ROOM);
+                upstream.flush();
+
+                String response = upstream.receiveFrame(frame) < 0 ? null : frame.toString();
+                if ("SPECTATING".equals(response)) {
+                    logMessage("Subscribed to room " + ROOM + " at " + host + ":" + port);
+                    resetState();
+                    return upstream;
+                }
+                upstream.close();
+                if (response == null || !response.startsWith("REDIRECT:")) {
+                    throw new IOException("Unexpected handshake response: " + response);
+                }
+                String target = response.substring("REDIRECT:".length());
+                int separator = target.lastIndexOf(':');
+                host = target.substring(0, separator);
+                port = Integer.parseInt(target.substring(separator + 1));
+            } catch (IOException e) {
+                upstream.close();
+                throw e;
+            }
+        }
+        throw new IOException("Too many redirects");
+    }
+
+    private synchronized void resetState() {
+        // A new upstream replays its own roster and snapshot, player IDs are per server
+        roster.clear();
+        phaseMessage = null;
+        lastScores = null;
+        lastMole = null;
+    }
+
+    private synchronized void onUpstreamMessage(String message) {
+        long now = System.currentTimeMillis();
+        if (message.startsWith("GAME_START:")) {
+            phaseMessage = "GAME_START";
+            phaseDuration = Integer.parseInt(message.split(":")[1]);
+            phasePlayers = null;
+            phaseReceivedAt = now;
+            lastMole = null;
+        } else if (message.startsWith("EXTRA_TIME:")) {
+            String[] parts = message.split(":", 3);
+            phaseMessage = "EXTRA_TIME";
+            phaseDuration = Integer.parseInt(parts[1]);
+            phasePlayers = parts.length > 2 ? parts[2] : "";
+            phaseReceivedAt = now;
+            lastMole = null;
+        } else if (message.startsWith("PLAYER:")) {
+            roster.put(message.split(":", 3)[1], message);
+        } else if (message.startsWith("PLAYER_LEFT:")) {
+            roster.remove(message.substring("PLAYER_LEFT:".length()));
+        } else if (message.startsWith("SCORES")) {
+            lastScores = message;
+        } else if (message.startsWith("MOLE_SPAWN:")) {
+            // MOLE_SPAWN:x:y:seq[:visibleMillis], a loaded server keeps moles up longer
+            String[] parts = message.split(":");
+            lastMole = message;
+            moleReceivedAt = now;
+            moleVisibleTime = parts.length > 4 ? Integer.parseInt(parts[4]) : MOLE_VISIBLE_TIME;
+        } else if (message.startsWith("GAME_END:") || message.equals("GAME_STOPPED")) {
+            phaseMessage = null;
+            lastMole = null;
+        }
+
+        for (Watcher watcher : watchers.values()) {
+            if (!watcher.sendMessage(message)) {
+                evictWatcher(watcher, "outbound queue full");
+            }
+        }
+    }
+
+    private synchronized void subscribe(Watcher watcher) {
+        // Snapshot and registration happen under the same lock as fan-out, so nothing is missed or repeated
+        watcher.sendMessage("SPECTATING");
+        for (String player : roster.values()) {
+            watcher.sendMessage(player);
+        }
+        long now = System.currentTimeMillis();
+        if (phaseMessage != null) {
+            long remaining = Math.max(0, phaseDuration - (now - phaseReceivedAt) / 1000);
+            if (phaseMessage.equals("EXTRA_TIME")) {
+                watcher.sendMessage("EXTRA_TIME:" + remaining + ":" + phasePlayers);
+            } else {
+                watcher.sendMessage("GAME_START:" + remaining + ":WATCH");
+            }
+        }
+        if (lastScores != null) {
+            watcher.sendMessage(lastScores);
+        }
+        if (lastMole != null && now - moleReceivedAt < moleVisibleTime) {
+            // Only the part of the visible time that is left
+            String[] parts = lastMole.split(":");
+            watcher.sendMessage(parts.length > 3
+                    ? "MOLE_SPAWN:" + parts[1] + ":" + parts[2] + ":" + parts[3] + ":" + (moleVisibleTime - (now - moleReceivedAt))
+                    : lastMole);
+        }
+        watchers.put(watcher.id, watcher);
+    }
+
+    private void handleWatcher(Transport transport) {
+        Watcher watcher = null;
+        try {
+            transport.setReceiveTimeout(IDLE_TIMEOUT);
+            // Watchers only ever send short lines, anything longer is dropped unread
+            Transport.Frame in = new Transport.Frame(MAX_LINE_LENGTH);
+
+            if (transport.receiveFrame(in) < 0 || !in.startsWith("SPECTATE:")) {
+                transport.sendFrame("SPECTATORS_ONLY");
+                transport.flush();
+                return;
+            }
+            if (!in.contentEquals("SPECTATE:" + ROOM)) {
+                // Serving our own room instead would show the watcher the wrong match
+                transport.sendFrame("WRONG_ROOM:" + ROOM);
+                transport.flush();
+                return;
+            }
+
+            watcher = new Watcher(watcherIds.incrementAndGet(), transport);
+            subscribe(watcher);
+            watcher.flush();
+            logMessage("Watcher " + watcher.id + " joined, " + watchers.size() + " watching");
+
+            // Watchers only answer heartbeats
+            int length;
+            while ((length = transport.receiveFrame(in)) != Transport.END_OF_STREAM && !(length > 0 && in.contentEquals("DISCONNECT"))) {
+                watcher.touch();
+            }
+        } catch (IOException e) {
+            // Treated like a normal disconnect
+        } finally {
+            if (watcher != null) {
+                removeWatcher(watcher);
+            } else {
+                try {
+                    transport.close();
+                } catch (IOException e) {
+                    // Ignore errors during cleanup
+                }
+            }
+        }
+    }
+
+    private void flushWatchers() {
+        // Hands each watcher to its own writer, one that stops reading can't hold up the others
+        for (Watcher watcher : watchers.values()) {
+            long stalled = watcher.flushStalledMillis();
+            if (stalled > WRITE_DEADLINE) {
+                // Closing the socket also unblocks the stuck writer
+                evictWatcher(watcher, "write blocked for " + stalled + " ms");
+                continue;
+            }
+            watcher.flushOn(watcherWriters, written -> { }, e -> evictWatcher(watcher, "send failed"));
+        }
+    }
+
+    private void sendHeartbeats() {
+        for (Watcher watcher : watchers.values()) {
+            if (watcher.idleMillis() > IDLE_TIMEOUT) {
+                evictWatcher(watcher, "no heartbeat for " + watcher.idleMillis() + " ms");
+            } else if (!watcher.sendMessage("PING")) {
+                evictWatcher(watcher, "outbound queue full");
+            }
+        }
+    }
+
+    private void evictWatcher(Watcher watcher, String reason) {
+        if (!watcher.markEvicted()) return;
+        logMessage("Evicting watcher " + watcher.id + ": " + reason);
+        removeWatcher(watcher);
+    }
+
+    private void removeWatcher(Watcher watcher) {
+        if (watchers.remove(watcher.id, watcher)) {
+            logMessage("Watcher " + watcher.id + " left, " + watchers.size() + " watching");
+        }
+        try {
+            watcher.close();
+        } catch (IOException e) {
+            // Ignore errors during cleanup
+        }
+    }
+
+    private void logMessage(String message) {
+        System.out.println("[" + new Date() + "] " + message);
+    }
+
+    private static class Watcher extends QueuedConnection {
+        private final int id;
+
+        public Watcher(int id, Transport transport) {
+            super(transport, MAX_PENDING_MESSAGES);
+            this.id = id;
+        }
+    }
+
+    public static void main(String[] args) {
+        try {
+            new WhackAMoleRelay().start();
+        } catch (IOException e) {
+            System.err.println("Failed to start relay: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+}
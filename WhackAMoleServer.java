@@ -1,90 +1,190 @@
-import java.awt.*;
+import java.awt.GraphicsEnvironment;
 import java.io.*;
+import java.lang.management.ManagementFactory;
 import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
 import java.util.*;
 import java.util.List;
 import java.util.concurrent.*;
-import javax.swing.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
 
-public class WhackAMoleServer extends JFrame {
-    private static final int PORT = 12345;
+/**
+ * The game core: connections, matchmaking, the game loop and scoring. It has no Swing in it,
+ * {@link ServerWindow} is one view of it, so simulations and tests can run a server headless
+ * and attach clients with {@link #connectInProcess()} without opening a port.
+ */
+public class WhackAMoleServer {
+    private static final int PORT = Integer.getInteger("whackamole.port", 12345);
     private static final int GAME_DURATION = 20; // seconds
     private static final int EXTRA_TIME_DURATION = 15; // seconds
     private static final int MIN_MOLE_INTERVAL = 1; // minimum seconds
     private static final int MAX_MOLE_INTERVAL = 3; // maximum seconds
     private static final int MIN_MOLE_INTERVAL_EXTRA = 500; // minimum seconds extra time
     private static final int MAX_MOLE_INTERVAL_EXTRA = 800; // maximum seconds extra time
+    private static final int HIT_WINDOW = 3000; // milliseconds a hit counts after the spawn
+    private static final int MOLE_VISIBLE_TIME = 2000; // milliseconds clients show the mole
+    private static final boolean ADAPTIVE_PACING = Boolean.parseBoolean(System.getProperty("whackamole.adaptivePacing", "true"));
+    private static final int PACING_BACKLOG_TARGET = Integer.getInteger("whackamole.pacingBacklog", 50); // queued messages per connection
+    private static final int PACING_ACK_TARGET = Integer.getInteger("whackamole.pacingAckMs", 300); // milliseconds from spawn to client render
+    private static final int PACING_MISS_TARGET = Integer.getInteger("whackamole.pacingMissPercent", 25); // acking players with no ack before the next spawn
+    private static final double MAX_PACING_STRETCH = 4.0; // slowest spawn pace, relative to normal
+    private static final double SKIP_SPAWN_LOAD = 3.0; // outbound backlog above this, spawns would arrive too late to hit
+    private static final int MAX_WINDOW_EXTENSION = 2000; // milliseconds
+    private static final int SPAWN_HISTORY = 16; // spawns a late ack can still be matched to
+    private static final int HEARTBEAT_INTERVAL = Integer.getInteger("whackamole.heartbeatMs", 5000); // milliseconds
+    private static final int IDLE_TIMEOUT = Integer.getInteger("whackamole.idleTimeoutMs", 15000); // milliseconds
+    private static final boolean UDP_ENABLED = Boolean.parseBoolean(System.getProperty("whackamole.udp", "true"));
+    private static final int TICK_INTERVAL = Integer.getInteger("whackamole.tickMs", 25); // milliseconds
+    private static final int MAX_PENDING_MESSAGES = Integer.getInteger("whackamole.maxPending", 1000); // per client
+    private static final int WRITE_DEADLINE = Integer.getInteger("whackamole.writeDeadlineMs", 20 * TICK_INTERVAL); // milliseconds a flush may block before the peer is evicted
+    private static final int UDP_REDUNDANCY = Integer.getInteger("whackamole.udpRedundancy", 2); // copies per datagram
+    private static final String NODE_ADDRESS = System.getProperty("whackamole.node", "localhost:" + PORT); // host:port other nodes and clients reach us on
+    private static final String CLUSTER_NODES = System.getProperty("whackamole.nodes", ""); // comma separated host:port list, empty for a single node
+    private static final int NODE_CHECK_INTERVAL = Integer.getInteger("whackamole.nodeCheckMs", 2000); // milliseconds
+    private static final int NODE_CHECK_TIMEOUT = 500; // milliseconds
+    private static final int NODE_FAILURES_BEFORE_DOWN = 2;
+    private static final String DEFAULT_ROOM = "lobby";
+    private static final int GRID_SIZE = 3;
+    private static final int MAX_LINE_LENGTH = Integer.getInteger("whackamole.maxLineLength", 256); // characters
+    private static final int MAX_MESSAGES_PER_SECOND = Integer.getInteger("whackamole.maxMessagesPerSecond", 20); // per client
+    private static final int MESSAGE_BURST = Integer.getInteger("whackamole.messageBurst", 40); // per client
+    private static final boolean AUTO_MATCH = Boolean.parseBoolean(System.getProperty("whackamole.autoMatch", "true"));
+    private static final int MATCH_SIZE = Integer.getInteger("whackamole.matchSize", 4); // players per match
+    private static final int MATCH_MAX_WAIT = Integer.getInteger("whackamole.matchWaitMs", 15000); // milliseconds before starting short-handed
+    private static final int MATCH_INTERMISSION = Integer.getInteger("whackamole.intermissionMs", 5000); // milliseconds between matches
+    private static final int MATCHMAKING_INTERVAL = 500; // milliseconds
+    private static final boolean LOG_HITS = Boolean.getBoolean("whackamole.logHits"); // one log line per hit, off on the hot path
+    private static final boolean PROFILE_HIT_ALLOCATIONS = Boolean.getBoolean("whackamole.profileHits");
+    private static final com.sun.management.ThreadMXBean ALLOCATION_COUNTER =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
 
     private ServerSocket serverSocket;
+    private DatagramSocket udpSocket;
+    private Map<String, ClientHandler> udpSessions; // session token -> client
+    private SecureRandom tokenGenerator;
+    private AtomicLong flushCount, charsSent;
+    private AtomicLong droppedRateLimited, droppedMalformed, droppedOversized;
+    private RoomDirectory roomDirectory;
+    private ScheduledExecutorService clusterScheduler;
     private Map<String, ClientHandler> clients;
-    private Map<String, Integer> playerScores;
-    private Set<String> activePlayersInExtraTime; // Players who can play in extra time
+    private Map<String, ClientHandler> spectators; // watch-only connections, usually relays
+    private AtomicInteger spectatorIds;
+    
+    // Game state, only ever touched from the game loop thread
+    private GameLoop gameLoop;
+    private int gameGeneration; // bumped whenever a game starts, goes to extra time or ends, stale timers check it
+    private PlayerTable players; // scores, hits and extra-time membership indexed by player ID
+    private long hitsProcessed;
+    private long hitAllocatedBytes;
+    private long loopBusyAtStart; // game loop busy time when the match started, nanoseconds
+    private Deque<Integer> matchQueue; // waiting player IDs, longest waiting first
+    private long nextMatchTime;
+    private long matchesStarted, playersMatched, totalQueueWait, maxQueueWait;
+    private Deque<Long> recentMatchStarts; // start times within the last minute
+    private long gameStartTime;
     private boolean gameRunning;
     private boolean extraTimeActive;
     private int currentMoleX, currentMoleY;
     private long moleAppearTime;
+    private long phaseEndTime;
+    private long spawnSeq;
+    private volatile long latestSpawnSeq; // spawnSeq for the reader threads
+    private long matchFirstSeq; // first spawn of the current match
+    private final long[] spawnTimes = new long[SPAWN_HISTORY]; // by spawnSeq % SPAWN_HISTORY
+    private final int[] spawnWindows = new int[SPAWN_HISTORY]; // how long that mole stays visible
+    private int currentHitWindow = HIT_WINDOW;
+    private double ackLatency; // moving average, milliseconds
+    private double ackMissRate; // moving average share of acking players that had not acked the last mole by the next spawn
+    private double spawnLoad, peakSpawnLoad; // 1.0 means clients are right at the pacing targets
+    private double backlogLoad; // the outbound part of spawnLoad, measured fresh on every spawn
+    private long spawnsShown, spawnsSkipped;
+    private boolean scoresDirty;
+    private boolean rebalancePending; // the ring changed during a match
     private ScheduledExecutorService gameScheduler;
+    private ExecutorService clientWriters; // one flush per connection at a time, a stuck peer only blocks its own
+    private ExecutorService outboundDispatcher; // tick flushes and datagrams, keeps socket work off the game loop and timers
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
     private ScheduledFuture<?> moleSpawnTask;
     private ScheduledFuture<?> gameEndTask;
     private Random random;
     
-    // GUI Components
-    private JTextArea logArea;
-    private JLabel statusLabel;
-    private JLabel playersLabel;
-    private JButton startButton;
-    private JButton stopButton;
+    private volatile View view = new View() {}; // log lines go to stdout until a window attaches
     
     public WhackAMoleServer() {
         clients = new ConcurrentHashMap<>();
-        playerScores = new ConcurrentHashMap<>();
-        activePlayersInExtraTime = new HashSet<>();
+        players = new PlayerTable();
+        matchQueue = new ArrayDeque<>();
+        recentMatchStarts = new ArrayDeque<>();
+        spectators = new ConcurrentHashMap<>();
+        spectatorIds = new AtomicInteger();
+        udpSessions = new ConcurrentHashMap<>();
+        tokenGenerator = new SecureRandom();
+        flushCount = new AtomicLong();
+        charsSent = new AtomicLong();
+        droppedRateLimited = new AtomicLong();
+        droppedMalformed = new AtomicLong();
+        droppedOversized = new AtomicLong();
+        gameLoop = new GameLoop();
         gameScheduler = Executors.newScheduledThreadPool(3);
+        outboundDispatcher = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "outbound");
+            thread.setDaemon(true);
+            return thread;
+        });
+        clientWriters = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "client-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
         random = new Random();
-        
-        initializeGUI();
-        startServer();
+        roomDirectory = new RoomDirectory(NODE_ADDRESS, CLUSTER_NODES);
     }
     
-    private void initializeGUI() {
-        setTitle("Whack a Mole - Server");
-        setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
-        setLayout(new BorderLayout());
-        
-        // Top panel
-        JPanel topPanel = new JPanel(new GridLayout(3, 1));
-        statusLabel = new JLabel("Server Status: Running on port " + PORT);
-        playersLabel = new JLabel("Connected Players: 0");
-        
-        JPanel buttonPanel = new JPanel(new FlowLayout());
-        startButton = new JButton("Start Game");
-        stopButton = new JButton("Stop Game");
-        stopButton.setEnabled(false);
-        
-        startButton.addActionListener(e -> startGame());
-        stopButton.addActionListener(e -> stopGame());
-        
-        buttonPanel.add(startButton);
-        buttonPanel.add(stopButton);
-        
-        topPanel.add(statusLabel);
-        topPanel.add(playersLabel);
-        topPanel.add(buttonPanel);
-        
-        // Log area
-        logArea = new JTextArea(20, 50);
-        logArea.setEditable(false);
-        logArea.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
-        JScrollPane scrollPane = new JScrollPane(logArea);
-        scrollPane.setBorder(BorderFactory.createTitledBorder("Server Log"));
-        
-        add(topPanel, BorderLayout.NORTH);
-        add(scrollPane, BorderLayout.CENTER);
-        
-        pack();
-        setLocationRelativeTo(null);
-        
+    /** Where status changes and log lines are reported, set it before start() to see them all. */
+    public void setView(View view) {
+        this.view = view;
+    }
+    
+    /**
+     * Starts the game timers. With listen set the server also accepts TCP and UDP clients on
+     * PORT, without it the only way in is connectInProcess() and no port is bound.
+     */
+    public void start(boolean listen) {
         logMessage("Server initialized successfully");
+        view.matchmakingChanged("Matchmaking: " + (AUTO_MATCH ? "waiting for players" : "off"));
+        if (listen) {
+            view.statusChanged("Server Status: Running on port " + PORT
+                    + (roomDirectory.isClustered() ? " (node " + NODE_ADDRESS + ")" : ""));
+            startServer();
+        } else {
+            view.statusChanged("Server Status: Running in-process only");
+        }
+        startTimers();
+    }
+    
+    /** Starts a match with everyone waiting, as the Start Game button does. */
+    public void requestStart() {
+        gameLoop.execute(this::startGame);
+    }
+    
+    public void requestStop() {
+        gameLoop.execute(this::stopGame);
+    }
+    
+    /** Commands the game loop has run so far, during a hit flood nearly all of them are hits. */
+    public long commandsProcessed() {
+        return gameLoop.commandsProcessed();
     }
     
     private void startServer() {
@@ -96,8 +196,8 @@ public class WhackAMoleServer extends JFrame {
             new Thread(() -> {
                 while (!serverSocket.isClosed()) {
                     try {
-                        Socket clientSocket = serverSocket.accept();
-                        new Thread(() -> handleNewClient(clientSocket)).start();
+                        Transport transport = new SocketTransport(serverSocket.accept());
+                        new Thread(() -> handleNewClient(transport)).start();
                     } catch (IOException e) {
                         if (!serverSocket.isClosed()) {
                             logMessage("Error accepting client: " + e.getMessage());
@@ -106,111 +206,586 @@ public class WhackAMoleServer extends JFrame {
                 }
             }).start();
             
+            if (UDP_ENABLED) {
+                startUdpChannel();
+            }
+            
+            if (roomDirectory.isClustered()) {
+                logMessage("Cluster nodes: " + String.join(", ", roomDirectory.allNodes()));
+                clusterScheduler = Executors.newSingleThreadScheduledExecutor();
+                clusterScheduler.scheduleWithFixedDelay(this::checkNodes, NODE_CHECK_INTERVAL, NODE_CHECK_INTERVAL, TimeUnit.MILLISECONDS);
+            }
+            
         } catch (IOException e) {
             logMessage("Failed to start server: " + e.getMessage());
         }
     }
     
-    private void handleNewClient(Socket clientSocket) {
+    private void startTimers() {
+        // Write everything queued for each client once per tick
+        gameScheduler.scheduleAtFixedRate(() -> gameLoop.execute(this::publishTick), TICK_INTERVAL, TICK_INTERVAL, TimeUnit.MILLISECONDS);
+        
+        if (AUTO_MATCH) {
+            gameScheduler.scheduleAtFixedRate(() -> gameLoop.execute(this::checkMatchmaking),
+                    MATCHMAKING_INTERVAL, MATCHMAKING_INTERVAL, TimeUnit.MILLISECONDS);
+        }
+        
+        // Ping clients and evict the ones that stopped answering
+        gameScheduler.scheduleAtFixedRate(this::sendHeartbeats, HEARTBEAT_INTERVAL, HEARTBEAT_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+    
+    private void startUdpChannel() {
+        try {
+            udpSocket = new DatagramSocket(PORT);
+            logMessage("UDP channel open on port " + PORT);
+            
+            new Thread(() -> {
+                byte[] buffer = new byte[512];
+                while (!udpSocket.isClosed()) {
+                    try {
+                        DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+                        udpSocket.receive(packet);
+                        handleDatagram(packet);
+                    } catch (IOException e) {
+                        if (!udpSocket.isClosed()) {
+                            logMessage("Error receiving datagram: " + e.getMessage());
+                        }
+                    } catch (RuntimeException e) {
+                        // Malformed datagram, drop it
+                        droppedMalformed.incrementAndGet();
+                    }
+                }
+            }).start();
+            
+        } catch (IOException e) {
+            // Clients simply stay on TCP
+            udpSocket = null;
+            logMessage("UDP channel unavailable, using TCP only: " + e.getMessage());
+        }
+    }
+    
+    private void handleDatagram(DatagramPacket packet) {
+        // HELLO:token or HIT:token:seq:x:y:time
+        String message = new String(packet.getData(), packet.getOffset(), packet.getLength(), StandardCharsets.UTF_8);
+        String[] parts = message.split(":");
+        if (parts.length < 2) return;
+        
+        ClientHandler client = udpSessions.get(parts[1]);
+        if (client == null) return;
+        
+        if (parts[0].equals("HELLO")) {
+            client.udpAddress = packet.getSocketAddress();
+            sendDatagram(client, "UDP_OK");
+        } else if (parts[0].equals("HIT") && parts.length == 6
+                && packet.getSocketAddress().equals(client.udpAddress)) {
+            client.touch();
+            long seq = Long.parseLong(parts[2]);
+            // Redundant copies are dropped before they cost the client any tokens
+            if (!client.acceptHitSeq(seq)) {
+                recordRejectedHit(client, "duplicate");
+                return;
+            }
+            if (!client.tryAcquire()) {
+                droppedRateLimited.incrementAndGet();
+                recordRejectedHit(client, "rate limited");
+                return;
+            }
+            int x = Integer.parseInt(parts[3]);
+            int y = Integer.parseInt(parts[4]);
+            if (x < 0 || x >= GRID_SIZE || y < 0 || y >= GRID_SIZE) {
+                droppedMalformed.incrementAndGet();
+                recordRejectedHit(client, "malformed");
+                return;
+            }
+            handleHit(client, x, y, Long.parseLong(parts[5]));
+        }
+    }
+    
+    private void sendDatagram(ClientHandler client, String message) {
+        byte[] data = message.getBytes(StandardCharsets.UTF_8);
+        SocketAddress address = client.udpAddress;
+        if (udpSocket == null || address == null) return;
+        
+        try {
+            for (int i = 0; i < UDP_REDUNDANCY; i++) {
+                udpSocket.send(new DatagramPacket(data, data.length, address));
+            }
+        } catch (IOException e) {
+            // TCP still carries the same message
+        }
+    }
+    
+    private void broadcastDatagram(String message) {
+        if (udpSocket == null) return;
+        
+        for (ClientHandler client : clients.values()) {
+            sendDatagram(client, message);
+        }
+    }
+    
+    public Transport connectInProcess() {
+        // Attaches a client living in this JVM, it gets exactly the same handling as a socket client
+        InProcessTransport[] ends = InProcessTransport.pair();
+        new Thread(() -> handleNewClient(ends[1])).start();
+        return ends[0];
+    }
+    
+    private void handleNewClient(Transport transport) {
         String playerName = null;
+        ClientHandler clientHandler = null;
+        HandshakeEvent handshake = new HandshakeEvent();
+        handshake.begin();
         try {
-            BufferedReader in = new BufferedReader(new InputStreamReader(clientSocket.getInputStream()));
-            PrintWriter out = new PrintWriter(clientSocket.getOutputStream(), true);
+            // A half-open connection must not keep this thread blocked in receiveFrame() forever
+            transport.setReceiveTimeout(IDLE_TIMEOUT);
+            Transport.Frame in = new Transport.Frame(MAX_LINE_LENGTH);
+            
+            // Get player name, either a bare name or JOIN:room:name
+            if (transport.receiveFrame(in) < 0) {
+                // Peer went away or sent garbage before completing the handshake
+                handshake.complete(null, null, "aborted");
+                return;
+            }
+            String hello = in.toString();
             
-            // Get player name
-            playerName = in.readLine();
+            if (hello.equals("NODE_PING")) {
+                // Liveness probe from another cluster node
+                transport.sendFrame("NODE_PONG");
+                transport.flush();
+                handshake.complete(null, null, "node ping");
+                return;
+            }
+            
+            String room = DEFAULT_ROOM;
+            playerName = hello;
+            boolean routed = false;
+            boolean spectator = false;
+            if (hello.startsWith("JOIN:")) {
+                String[] parts = hello.split(":", 3);
+                if (parts.length < 3) {
+                    handshake.complete(null, null, "malformed");
+                    return;
+                }
+                room = parts[1];
+                playerName = parts[2];
+                routed = true;
+            } else if (hello.startsWith("SPECTATE:")) {
+                room = hello.substring("SPECTATE:".length());
+                playerName = "spectator-" + spectatorIds.incrementAndGet();
+                routed = true;
+                spectator = true;
+            }
             
-            if (clients.containsKey(playerName)) {
-                out.println("NAME_TAKEN");
-                clientSocket.close();
+            if (routed) {
+                // Send the client to the node that owns its room
+                String owner = roomDirectory.ownerOf(room);
+                if (!owner.equals(NODE_ADDRESS)) {
+                    transport.sendFrame("REDIRECT:" + owner);
+                    transport.flush();
+                    logMessage("Redirected " + playerName + " to " + owner + " for room " + room);
+                    handshake.complete(playerName, room, "redirected");
+                    playerName = null;
+                    return;
+                }
+            }
+            
+            // Queue the handshake before registering, so it goes out ahead of any broadcast
+            ClientHandler handler = new ClientHandler(transport, playerName);
+            handler.room = room;
+            handler.lastFreeAckSeq = latestSpawnSeq; // spawns from before this connection earn no free acks
+            
+            if (spectator) {
+                handler.spectator = true;
+                handler.sendMessage("SPECTATING");
+                // Snapshot and registration run as one command, so no broadcast falls in between
+                String spectatorName = playerName;
+                gameLoop.execute(() -> {
+                    sendSnapshot(handler);
+                    spectators.put(spectatorName, handler);
+                });
+                clientHandler = handler;
+                clientHandler.flush();
+                handshake.complete(playerName, room, "spectating");
+                logMessage("Spectator connected: " + playerName);
+                updatePlayersLabel();
+                
+                // Spectators only answer heartbeats
+                int length;
+                while ((length = transport.receiveFrame(in)) != Transport.END_OF_STREAM && !(length > 0 && in.contentEquals("DISCONNECT"))) {
+                    clientHandler.touch();
+                }
                 return;
             }
             
-            ClientHandler clientHandler = new ClientHandler(clientSocket, in, out, playerName);
-            clients.put(playerName, clientHandler);
-            playerScores.put(playerName, 0);
+            handler.sendMessage("CONNECTED");
+            
+            // Offer the UDP side channel, the client proves ownership of the token from its datagram address
+            if (udpSocket != null && transport.remoteHost() != null) {
+                handler.udpToken = Long.toHexString(tokenGenerator.nextLong());
+                handler.sendMessage("UDP:" + PORT + ":" + handler.udpToken);
+            }
+            
+            if (clients.putIfAbsent(playerName, handler) != null) {
+                transport.sendFrame("NAME_TAKEN");
+                transport.flush();
+                transport.close();
+                handshake.complete(playerName, room, "name taken");
+                return;
+            }
+            clientHandler = handler;
+            String newPlayer = playerName;
+            gameLoop.execute(() -> registerPlayer(newPlayer, handler));
+            if (clientHandler.udpToken != null) {
+                udpSessions.put(clientHandler.udpToken, clientHandler);
+            }
             
-            out.println("CONNECTED");
+            // Don't make the handshake wait for the next tick
+            clientHandler.flush();
+            handshake.complete(playerName, room, "joined");
             logMessage("Player connected: " + playerName);
             updatePlayersLabel();
             
-            // Handle client messages
-            String message;
-            while ((message = in.readLine()) != null) {
-                handleClientMessage(playerName, message);
+            // Handle client messages, cheapest checks first so abusive input costs as little as possible
+            int length;
+            while ((length = transport.receiveFrame(in)) != Transport.END_OF_STREAM) {
+                clientHandler.touch();
+                if (length == Transport.OVERSIZED) {
+                    droppedOversized.incrementAndGet();
+                    recordRejectedHit(clientHandler, "oversized");
+                    continue;
+                }
+                
+                if (in.startsWith("HIT:")) {
+                    // Validated and parsed in place, no strings are created on the hit path
+                    if (!in.parseHit(GRID_SIZE)) {
+                        droppedMalformed.incrementAndGet();
+                        recordRejectedHit(clientHandler, "malformed");
+                        continue;
+                    }
+                    // The copy already received over UDP is dropped before it costs the client a token
+                    if (in.hitSeq >= 0 && !clientHandler.acceptHitSeq(in.hitSeq)) {
+                        recordRejectedHit(clientHandler, "duplicate");
+                        continue;
+                    }
+                    if (!clientHandler.tryAcquire()) {
+                        droppedRateLimited.incrementAndGet();
+                        recordRejectedHit(clientHandler, "rate limited");
+                        continue;
+                    }
+                    handleHit(clientHandler, in.hitX, in.hitY, in.hitTime);
+                } else if (in.startsWith("SPAWN_ACK:")) {
+                    // Parsed in place like hits, garbage is dropped before it costs anything
+                    if (!in.parseSpawnAck()) {
+                        droppedMalformed.incrementAndGet();
+                        continue;
+                    }
+                    handleSpawnAck(clientHandler, in.ackSeq);
+                } else if (!clientHandler.tryAcquire()) {
+                    droppedRateLimited.incrementAndGet();
+                } else {
+                    handleClientMessage(clientHandler, in.toString());
+                }
             }
             
+        } catch (SocketTimeoutException e) {
+            logMessage("Client " + (playerName != null ? playerName : "unknown") + " timed out after " + IDLE_TIMEOUT + " ms");
         } catch (IOException e) {
             logMessage("Client connection error for " + (playerName != null ? playerName : "unknown") + ": " + e.getMessage());
         } finally {
+            // Covers handshakes cut short by a timeout or I/O error
+            handshake.complete(playerName, null, "failed");
+            
             // Clean up disconnected client
-            if (playerName != null) {
-                disconnectClient(playerName);
+            if (clientHandler != null) {
+                String name = playerName;
+                ClientHandler handler = clientHandler;
+                gameLoop.execute(() -> disconnectClient(name, handler));
+            } else {
+                try {
+                    transport.close();
+                } catch (IOException e) {
+                    // Ignore errors during cleanup
+                }
+            }
+        }
+    }
+    
+    private void sendSnapshot(ClientHandler spectator) {
+        // Lets a spectator joining mid-match render the current phase, scores and mole
+        sendRoster(spectator);
+        if (!gameRunning) return;
+        
+        long now = System.currentTimeMillis();
+        long remaining = Math.max(0, (phaseEndTime - now + 999) / 1000);
+        if (extraTimeActive) {
+            spectator.sendMessage("EXTRA_TIME:" + remaining + ":" + String.join(",", players.namesOf(players.extraTime)));
+        } else {
+            spectator.sendMessage("GAME_START:" + remaining + ":WATCH");
+        }
+        spectator.sendMessage(buildScoresMessage());
+        if (now - moleAppearTime < MOLE_VISIBLE_TIME + (currentHitWindow - HIT_WINDOW)) {
+            spectator.sendMessage("MOLE_SPAWN:" + currentMoleX + ":" + currentMoleY + ":" + spawnSeq
+                    + ":" + (MOLE_VISIBLE_TIME + currentHitWindow - HIT_WINDOW - (now - moleAppearTime)));
+        }
+    }
+    
+    private void handleClientMessage(ClientHandler client, String message) {
+        if (message.equals("PONG")) {
+            // Heartbeat reply, liveness already recorded by the read loop
+        } else if (message.equals("DISCONNECT")) {
+            gameLoop.execute(() -> disconnectClient(client.playerName, client));
+        } else {
+            droppedMalformed.incrementAndGet();
+        }
+    }
+    
+    private void handleSpawnAck(ClientHandler client, long seq) {
+        // The first ack for each recent spawn costs no token, so a client that spent its tokens on
+        // other messages is not taken for one that never saw the mole. lastFreeAckSeq only moves
+        // forward and starts at the spawn current on connect, so that is at most one free ack per
+        // spawn. Anything else pays as usual.
+        long latest = latestSpawnSeq;
+        if (seq > client.lastFreeAckSeq && seq <= latest && latest - seq < SPAWN_HISTORY) {
+            client.lastFreeAckSeq = seq;
+        } else if (!client.tryAcquire()) {
+            droppedRateLimited.incrementAndGet();
+            return;
+        }
+        long receivedAt = System.currentTimeMillis();
+        gameLoop.execute(() -> recordSpawnAck(client.playerId, seq, receivedAt));
+    }
+    
+    private void handleHit(ClientHandler client, int x, int y, long hitTime) {
+        // Called from connection threads, the score change itself happens on the game loop
+        long queuedAt = System.nanoTime();
+        gameLoop.execute(() -> {
+            if (PROFILE_HIT_ALLOCATIONS) {
+                long before = allocatedBytes();
+                applyHit(client.playerId, x, y, hitTime, queuedAt);
+                hitAllocatedBytes += allocatedBytes() - before;
+            } else {
+                applyHit(client.playerId, x, y, hitTime, queuedAt);
             }
+        });
+    }
+    
+    private void applyHit(int playerId, int x, int y, long hitTime, long queuedAt) {
+        // The event object is scalar-replaced by the JIT, fields are only filled in while recording
+        HitEvent event = new HitEvent();
+        event.begin();
+        String result = scoreHit(playerId, x, y, hitTime);
+        event.end();
+        if (event.shouldCommit()) {
+            event.playerId = playerId;
+            event.x = x;
+            event.y = y;
+            event.result = result;
+            event.moleAge = hitTime - moleAppearTime;
+            event.queueDelay = System.nanoTime() - queuedAt;
+            event.commit();
+        }
+    }
+    
+    private static void recordRejectedHit(ClientHandler client, String result) {
+        // Hits turned away before reaching the game loop, result is always a constant so nothing is allocated
+        HitEvent event = new HitEvent();
+        if (event.shouldCommit()) {
+            event.playerId = client.playerId;
+            event.x = -1;
+            event.y = -1;
+            event.result = result;
+            event.commit();
         }
     }
     
-    private void handleClientMessage(String playerName, String message) {
-        if (message.startsWith("HIT:")) {
-            String[] parts = message.split(":");
-            int x = Integer.parseInt(parts[1]);
-            int y = Integer.parseInt(parts[2]);
-            long hitTime = Long.parseLong(parts[3]);
+    private String scoreHit(int playerId, int x, int y, long hitTime) {
+        // Allocation-free unless LOG_HITS is on, returns the outcome for the hit event
+        if (!players.contains(playerId)) return "disconnected"; // Disconnected while the hit was queued
+        if (!gameRunning) return "no game";
+        
+        // Check if player can play (either normal game or in extra time)
+        if (!players.inMatch.get(playerId)) {
+            return "queued"; // Waiting for the next match
+        }
+        if (extraTimeActive && !players.extraTime.get(playerId)) {
+            if (LOG_HITS) {
+                logMessage(players.names[playerId] + " tried to hit but is not active in extra time");
+            }
+            return "not in extra time";
+        }
+        
+        int currentScore = players.scores[playerId];
+        hitsProcessed++;
+        String result;
+        
+        // Check if hit is valid (within time window and correct position)
+        if (Math.abs(hitTime - moleAppearTime) < currentHitWindow && 
+            x == currentMoleX && y == currentMoleY) {
             
-            if (gameRunning) {
-                // Check if player can play (either normal game or in extra time)
-                if (!extraTimeActive || activePlayersInExtraTime.contains(playerName)) {
-                    int currentScore = playerScores.get(playerName);
-                    
-                    // Check if hit is valid (within time window and correct position)
-                    if (Math.abs(hitTime - moleAppearTime) < 3000 && 
-                        x == currentMoleX && y == currentMoleY) {
-                        
-                        // Correct hit - add 10 points
-                        playerScores.put(playerName, currentScore + 10);
-                        logMessage(playerName + " scored! New score: " + (currentScore + 10));
-                        
-                    } else {
-                        // Wrong hit - subtract 5 points (but don't go below 0)
-                        int newScore = Math.max(0, currentScore - 5);
-                        playerScores.put(playerName, newScore);
-                        logMessage(playerName + " missed! Score reduced to: " + newScore);
-                    }
-                    
-                    broadcastScores();
-                } else {
-                    logMessage(playerName + " tried to hit but is not active in extra time");
+            // Correct hit - add 10 points
+            players.scores[playerId] = currentScore + 10;
+            players.hits[playerId]++;
+            result = "hit";
+            if (LOG_HITS) {
+                logMessage(players.names[playerId] + " scored! New score: " + (currentScore + 10));
+            }
+            
+        } else {
+            // Wrong hit - subtract 5 points (but don't go below 0)
+            int newScore = Math.max(0, currentScore - 5);
+            players.scores[playerId] = newScore;
+            result = "miss";
+            if (LOG_HITS) {
+                logMessage(players.names[playerId] + " missed! Score reduced to: " + newScore);
+            }
+        }
+        
+        broadcastScores();
+        return result;
+    }
+    
+    private static long allocatedBytes() {
+        // Looked up once, fetching the bean on every call allocates more than the hit path itself
+        return ALLOCATION_COUNTER.getCurrentThreadAllocatedBytes();
+    }
+    
+    private void registerPlayer(String playerName, ClientHandler client) {
+        // Dense IDs are reused after disconnects, so the score arrays stay compact
+        client.playerId = players.add(playerName);
+        broadcastMessage("PLAYER:" + client.playerId + ":" + playerName);
+        for (int id = players.used.nextSetBit(0); id >= 0; id = players.used.nextSetBit(id + 1)) {
+            if (id != client.playerId) {
+                client.sendMessage("PLAYER:" + id + ":" + players.names[id]);
+            }
+        }
+        
+        // New players wait for the next match
+        enqueuePlayer(client.playerId, System.currentTimeMillis());
+        client.sendMessage("QUEUED:" + matchQueue.size());
+        updateMatchmakingLabel();
+    }
+    
+    private void enqueuePlayer(int playerId, long now) {
+        players.queuedSince[playerId] = now;
+        matchQueue.addLast(playerId);
+    }
+    
+    private void checkMatchmaking() {
+        // Start a match once the room is full, or short-handed once the longest wait runs out
+        updateMatchmakingLabel(); // Keeps the current longest wait live
+        if (gameRunning || matchQueue.isEmpty()) return;
+        
+        long now = System.currentTimeMillis();
+        if (now < nextMatchTime) return;
+        
+        long longestWait = now - players.queuedSince[matchQueue.peekFirst()];
+        if (matchQueue.size() >= MATCH_SIZE || longestWait >= MATCH_MAX_WAIT) {
+            startMatch(MATCH_SIZE);
+        }
+    }
+    
+    private void requeueMatchPlayers() {
+        // Back-to-back matches: everyone who just played lines up behind those already waiting
+        long now = System.currentTimeMillis();
+        for (int id = players.inMatch.nextSetBit(0); id >= 0; id = players.inMatch.nextSetBit(id + 1)) {
+            if (players.contains(id)) {
+                enqueuePlayer(id, now);
+                ClientHandler client = clients.get(players.names[id]);
+                if (client != null) {
+                    client.sendMessage("QUEUED:" + matchQueue.size());
                 }
             }
-        } else if (message.equals("DISCONNECT")) {
-            disconnectClient(playerName);
+        }
+        players.inMatch.clear();
+        nextMatchTime = now + MATCH_INTERMISSION;
+        updateMatchmakingLabel();
+    }
+    
+    private void updateMatchmakingLabel() {
+        view.matchmakingChanged(matchmakingStatus());
+    }
+    
+    private String matchmakingStatus() {
+        long now = System.currentTimeMillis();
+        while (!recentMatchStarts.isEmpty() && now - recentMatchStarts.peekFirst() > 60000) {
+            recentMatchStarts.removeFirst();
+        }
+        long longestWait = matchQueue.isEmpty() ? 0 : now - players.queuedSince[matchQueue.peekFirst()];
+        return "Matchmaking: " + matchQueue.size() + " waiting, longest " + (longestWait / 1000.0) + " s now, "
+                + recentMatchStarts.size() + " matches/min, avg wait "
+                + (playersMatched == 0 ? 0 : totalQueueWait / playersMatched / 1000.0) + " s, max wait "
+                + (maxQueueWait / 1000.0) + " s";
+    }
+    
+    private void sendRoster(ClientHandler client) {
+        for (int id = players.used.nextSetBit(0); id >= 0; id = players.used.nextSetBit(id + 1)) {
+            client.sendMessage("PLAYER:" + id + ":" + players.names[id]);
         }
     }
     
     private void startGame() {
-        if (clients.size() < 1) {
-            JOptionPane.showMessageDialog(this, "Need at least 1 player to start!");
+        // Manual start takes everyone who is waiting
+        if (gameRunning) return;
+        if (matchQueue.size() < 1) {
+            view.alert("Need at least 1 player to start!");
             return;
         }
+        startMatch(Integer.MAX_VALUE);
+    }
+    
+    private void startMatch(int maxPlayers) {
+        // Take the longest waiting players off the queue
+        long now = System.currentTimeMillis();
+        players.inMatch.clear();
+        while (!matchQueue.isEmpty() && players.inMatch.cardinality() < maxPlayers) {
+            int id = matchQueue.removeFirst();
+            if (!players.contains(id)) continue;
+            long waited = now - players.queuedSince[id];
+            totalQueueWait += waited;
+            playersMatched++;
+            maxQueueWait = Math.max(maxQueueWait, waited);
+            players.inMatch.set(id);
+        }
+        if (players.inMatch.isEmpty()) return;
+        matchesStarted++;
+        recentMatchStarts.addLast(now);
         
+        gameGeneration++;
         gameRunning = true;
         extraTimeActive = false;
-        activePlayersInExtraTime.clear();
-        startButton.setEnabled(false);
-        stopButton.setEnabled(true);
+        players.extraTime.clear();
+        hitsProcessed = 0;
+        hitAllocatedBytes = 0;
+        loopBusyAtStart = gameLoop.busyNanos();
+        matchFirstSeq = spawnSeq + 1;
+        currentHitWindow = HIT_WINDOW;
+        ackLatency = ackMissRate = 0;
+        spawnLoad = peakSpawnLoad = backlogLoad = 0;
+        spawnsShown = spawnsSkipped = 0;
+        gameStartTime = System.currentTimeMillis();
+        updateButtons();
         
         // Reset scores
-        playerScores.replaceAll((k, v) -> 0);
+        players.resetScores();
         
-        logMessage("Game started with " + clients.size() + " players");
-        broadcastMessage("GAME_START:" + GAME_DURATION);
+        logMessage("Game started with " + players.inMatch.cardinality() + " players, "
+                + matchQueue.size() + " still waiting");
+        recordPhase("started", players.inMatch.cardinality());
+        updateMatchmakingLabel();
+        
+        // Players left in the queue watch this match
+        for (ClientHandler client : allConnections()) {
+            boolean playing = client.playerId >= 0 && players.inMatch.get(client.playerId);
+            client.sendMessage("GAME_START:" + GAME_DURATION + (playing ? "" : ":WATCH"));
+        }
         broadcastScores();
         
         // Schedule first mole appearance with random delay
         scheduleNextMole();
         
         // Schedule game end
-        gameEndTask = gameScheduler.schedule(this::endGame, GAME_DURATION, TimeUnit.SECONDS);
+        phaseEndTime = System.currentTimeMillis() + GAME_DURATION * 1000L;
+        gameEndTask = scheduleOnLoop(this::endGame, GAME_DURATION, TimeUnit.SECONDS);
     }
     
     private void scheduleNextMole() {
@@ -219,32 +794,141 @@ public class WhackAMoleServer extends JFrame {
         // Generate random interval between MIN_MOLE_INTERVAL and MAX_MOLE_INTERVAL
         int randomInterval = MIN_MOLE_INTERVAL + random.nextInt(MAX_MOLE_INTERVAL - MIN_MOLE_INTERVAL + 1);
         
-        moleSpawnTask = gameScheduler.schedule(() -> {
+        moleSpawnTask = scheduleOnLoop(() -> {
             spawnMole();
             scheduleNextMole(); // Schedule next mole with new random interval
-        }, randomInterval, TimeUnit.SECONDS);
+        }, pacedInterval(randomInterval * 1000L), TimeUnit.MILLISECONDS);
     }
+    
     private void scheduleNextMoleExtraTime() {
         if (!gameRunning) return;
         
         // Generate random interval between MIN_MOLE_INTERVAL and MAX_MOLE_INTERVAL
         int randomInterval = MIN_MOLE_INTERVAL_EXTRA + random.nextInt(MAX_MOLE_INTERVAL_EXTRA - MIN_MOLE_INTERVAL_EXTRA + 1);
         
-        moleSpawnTask = gameScheduler.schedule(() -> {
+        moleSpawnTask = scheduleOnLoop(() -> {
             spawnMole();
             scheduleNextMoleExtraTime(); // Schedule next mole with new random interval
-        }, randomInterval, TimeUnit.MILLISECONDS);
+        }, pacedInterval(randomInterval), TimeUnit.MILLISECONDS);
+    }
+    
+    private long pacedInterval(long interval) {
+        // Stretch the gap while clients are behind, so a new mole doesn't queue up behind the last one
+        if (ADAPTIVE_PACING) {
+            interval = (long) (interval * Math.min(MAX_PACING_STRETCH, Math.max(1.0, spawnLoad)));
+        }
+        return interval;
+    }
+    
+    private void updateSpawnLoad() {
+        // Players who ack but have not acked the previous mole yet. Counted as a miss rate rather than a
+        // latency sample: the time since that spawn grows with the pacing itself, so feeding it back
+        // into ackLatency would keep stretching the pace. The late ack still counts once it arrives.
+        long previous = spawnSeq;
+        if (previous >= matchFirstSeq) {
+            int expected = 0, missed = 0;
+            for (int id = players.inMatch.nextSetBit(0); id >= 0; id = players.inMatch.nextSetBit(id + 1)) {
+                if (extraTimeActive && !players.extraTime.get(id)) continue;
+                if (players.acks[id] > 0) {
+                    expected++;
+                    if (players.lastAckedSeq[id] < previous) missed++;
+                }
+            }
+            if (expected > 0) {
+                ackMissRate = ackMissRate * 0.8 + 0.2 * missed / expected;
+            }
+        }
+        
+        // Mean outbound backlog, a single stuck client is dealt with by eviction instead
+        List<ClientHandler> connections = allConnections();
+        long backlog = 0;
+        for (ClientHandler client : connections) {
+            backlog += client.pendingMessages();
+        }
+        double meanBacklog = connections.isEmpty() ? 0 : (double) backlog / connections.size();
+        
+        backlogLoad = meanBacklog / PACING_BACKLOG_TARGET;
+        spawnLoad = Math.max(backlogLoad, Math.max(ackLatency / PACING_ACK_TARGET, ackMissRate * 100 / PACING_MISS_TARGET));
+        peakSpawnLoad = Math.max(peakSpawnLoad, spawnLoad);
+    }
+    
+    private void addAckSample(long latency) {
+        ackLatency = ackLatency == 0 ? latency : ackLatency * 0.8 + latency * 0.2;
+    }
+    
+    private void recordSpawnAck(int playerId, long seq, long receivedAt) {
+        if (!gameRunning || !players.contains(playerId) || !players.inMatch.get(playerId)) return;
+        // Too old to match, or already counted
+        if (seq < matchFirstSeq || seq > spawnSeq || spawnSeq - seq >= SPAWN_HISTORY || seq <= players.lastAckedSeq[playerId]) return;
+        
+        int slot = (int) (seq % SPAWN_HISTORY);
+        long latency = receivedAt - spawnTimes[slot];
+        players.lastAckedSeq[playerId] = seq;
+        players.ackLatencyTotal[playerId] += latency;
+        players.acks[playerId]++;
+        if (latency < spawnWindows[slot]) {
+            players.seenInTime[playerId]++;
+        }
+        addAckSample(latency);
+    }
+    
+    private ScheduledFuture<?> scheduleOnLoop(Runnable command, long delay, TimeUnit unit) {
+        // The timer only posts the command, it runs on the game loop unless the game changed meanwhile
+        int generation = gameGeneration;
+        return gameScheduler.schedule(() -> gameLoop.execute(() -> {
+            if (generation == gameGeneration) {
+                command.run();
+            }
+        }), delay, unit);
     }
     
     private void spawnMole() {
         if (!gameRunning) return;
         
+        updateSpawnLoad();
+        if (ADAPTIVE_PACING && backlogLoad > SKIP_SPAWN_LOAD) {
+            // Saturated, clients would only see this mole after it is gone. Ack latency alone never
+            // skips, with no moles there would be no acks to tell us things got better.
+            spawnsSkipped++;
+            return;
+        }
+        
         currentMoleX = random.nextInt(3);
         currentMoleY = random.nextInt(3);
         moleAppearTime = System.currentTimeMillis();
+        spawnSeq++;
+        latestSpawnSeq = spawnSeq;
+        spawnsShown++;
+        
+        // Late clients get extra time to hit, as measured by their acks
+        int extension = ADAPTIVE_PACING ? (int) Math.min(MAX_WINDOW_EXTENSION, ackLatency) : 0;
+        currentHitWindow = HIT_WINDOW + extension;
+        spawnTimes[(int) (spawnSeq % SPAWN_HISTORY)] = moleAppearTime;
+        spawnWindows[(int) (spawnSeq % SPAWN_HISTORY)] = MOLE_VISIBLE_TIME + extension;
+        for (int id = players.inMatch.nextSetBit(0); id >= 0; id = players.inMatch.nextSetBit(id + 1)) {
+            if (!extraTimeActive || players.extraTime.get(id)) {
+                players.offered[id]++;
+            }
+        }
         
-        broadcastMessage("MOLE_SPAWN:" + currentMoleX + ":" + currentMoleY);
+        MoleSpawnEvent event = new MoleSpawnEvent();
+        event.begin();
+        
+        // Same message on both channels, clients render whichever copy arrives first
+        String spawnMessage = "MOLE_SPAWN:" + currentMoleX + ":" + currentMoleY + ":" + spawnSeq
+                + ":" + (MOLE_VISIBLE_TIME + extension);
+        outboundDispatcher.execute(() -> broadcastDatagram(spawnMessage));
+        broadcastMessage(spawnMessage);
         logMessage("Mole spawned at (" + currentMoleX + ", " + currentMoleY + ")");
+        
+        event.end();
+        if (event.shouldCommit()) {
+            event.x = currentMoleX;
+            event.y = currentMoleY;
+            event.sequence = spawnSeq;
+            event.extraTime = extraTimeActive;
+            event.commit();
+        }
     }
     
     private void endGame() {
@@ -253,25 +937,24 @@ public class WhackAMoleServer extends JFrame {
             moleSpawnTask.cancel(false);
         }
         
-        List<Map.Entry<String, Integer>> sorted = new ArrayList<>(playerScores.entrySet());
-        sorted.sort((a, b) -> b.getValue() - a.getValue());
+        int[] ranked = players.ranked(players.inMatch);
 
-        if (sorted.size() >= 2 && !extraTimeActive) {
-            int topScore = sorted.get(0).getValue();
-            int secondScore = sorted.get(1).getValue();
+        if (ranked.length >= 2 && !extraTimeActive) {
+            int topScore = players.scores[ranked[0]];
+            int secondScore = players.scores[ranked[1]];
 
             if (topScore == secondScore && topScore > 0) {
                 // Find all players with the top score
-                List<String> topPlayers = new ArrayList<>();
-                for (Map.Entry<String, Integer> entry : sorted) {
-                    if (entry.getValue() == topScore) {
-                        topPlayers.add(entry.getKey());
+                BitSet topPlayers = new BitSet();
+                for (int id : ranked) {
+                    if (players.scores[id] == topScore) {
+                        topPlayers.set(id);
                     } else {
                         break;
                     }
                 }
                 
-                if (topPlayers.size() >= 2) {
+                if (topPlayers.cardinality() >= 2) {
                     startExtraTime(topPlayers);
                     return;
                 }
@@ -279,23 +962,27 @@ public class WhackAMoleServer extends JFrame {
         }
 
         // Normal game end
-        finishGame(sorted);
+        finishGame(ranked);
     }
     
-    private void startExtraTime(List<String> topPlayers) {
+    private void startExtraTime(BitSet topPlayers) {
+        // A normal-time spawn already posted to the loop would otherwise start a second mole chain
+        gameGeneration++;
         extraTimeActive = true;
-        activePlayersInExtraTime.clear();
-        activePlayersInExtraTime.addAll(topPlayers);
+        players.extraTime.clear();
+        players.extraTime.or(topPlayers);
         
         // Reset scores only for active players
-        for (String player : activePlayersInExtraTime) {
-            playerScores.put(player, 0);
+        for (int id = topPlayers.nextSetBit(0); id >= 0; id = topPlayers.nextSetBit(id + 1)) {
+            players.scores[id] = 0;
         }
         
-        logMessage("Extra time started with players: " + String.join(", ", topPlayers));
+        List<String> topNames = players.namesOf(topPlayers);
+        logMessage("Extra time started with players: " + String.join(", ", topNames));
+        recordPhase("extra time", topPlayers.cardinality());
         
         // Broadcast extra time start with active players list
-        String activePlayersStr = String.join(",", activePlayersInExtraTime);
+        String activePlayersStr = String.join(",", topNames);
         broadcastMessage("EXTRA_TIME:" + EXTRA_TIME_DURATION + ":" + activePlayersStr);
         broadcastScores();
         
@@ -303,7 +990,8 @@ public class WhackAMoleServer extends JFrame {
         scheduleNextMoleExtraTime();
         
         // Schedule extra time end
-        gameEndTask = gameScheduler.schedule(this::endExtraTime, EXTRA_TIME_DURATION, TimeUnit.SECONDS);
+        phaseEndTime = System.currentTimeMillis() + EXTRA_TIME_DURATION * 1000L;
+        gameEndTask = scheduleOnLoop(this::endExtraTime, EXTRA_TIME_DURATION, TimeUnit.SECONDS);
     }
     
     private void endExtraTime() {
@@ -315,36 +1003,76 @@ public class WhackAMoleServer extends JFrame {
         }
         
         // Get results from active players only
-        List<Map.Entry<String, Integer>> sorted = new ArrayList<>();
-        for (String activePlayer : activePlayersInExtraTime) {
-            sorted.add(new AbstractMap.SimpleEntry<>(activePlayer, playerScores.get(activePlayer)));
-        }
-        sorted.sort((a, b) -> b.getValue() - a.getValue());
+        int[] ranked = players.ranked(players.extraTime);
         
         logMessage("Extra time ended");
-        finishGame(sorted);
+        finishGame(ranked);
     }
     
-    private void finishGame(List<Map.Entry<String, Integer>> sorted) {
+    private void finishGame(int[] ranked) {
+        gameGeneration++;
         gameRunning = false;
         extraTimeActive = false;
-        activePlayersInExtraTime.clear();
-        startButton.setEnabled(true);
-        stopButton.setEnabled(false);
+        players.extraTime.clear();
+        updateButtons();
         
-        String winner = sorted.isEmpty() ? "No one" : sorted.get(0).getKey();
-        int winningScore = sorted.isEmpty() ? 0 : sorted.get(0).getValue();
+        String winner = ranked.length == 0 ? "No one" : players.names[ranked[0]];
+        int winningScore = ranked.length == 0 ? 0 : players.scores[ranked[0]];
 
         logMessage("Game ended. Winner: " + winner + " with score: " + winningScore);
+        recordPhase("finished", ranked.length);
         broadcastMessage("GAME_END:" + winner + ":" + winningScore);
+        long elapsed = Math.max(1, System.currentTimeMillis() - gameStartTime);
+        logLoopStats();
+        logMessage("Outbound so far: " + charsSent.get() + " characters in " + flushCount.get() + " flushes");
+        logMessage("Dropped input so far: " + droppedRateLimited.get() + " rate limited, "
+                + droppedMalformed.get() + " malformed, " + droppedOversized.get() + " oversized");
+        logPacingReport(elapsed);
+        requeueMatchPlayers();
+        // The label only exists in the window, a headless server gets the same figures here
+        logMessage(matchmakingStatus());
+        if (rebalancePending) {
+            rebalanceRooms();
+        }
+    }
+    
+    private void logPacingReport(long elapsed) {
+        // How many moles were actually playable, and whether they reached every player alike
+        int matchPlayers = players.inMatch.cardinality();
+        if (spawnsShown == 0 || matchPlayers == 0) return;
+        
+        long totalHits = 0;
+        double seenTotal = 0, seenSquares = 0, worstSeen = 1.0;
+        long slowestAck = 0;
+        for (int id = players.inMatch.nextSetBit(0); id >= 0; id = players.inMatch.nextSetBit(id + 1)) {
+            totalHits += players.hits[id];
+            double seen = players.offered[id] == 0 ? 1.0 : (double) players.seenInTime[id] / players.offered[id];
+            seenTotal += seen;
+            seenSquares += seen * seen;
+            worstSeen = Math.min(worstSeen, seen);
+            if (players.acks[id] > 0) {
+                slowestAck = Math.max(slowestAck, players.ackLatencyTotal[id] / players.acks[id]);
+            }
+        }
+        // Jain's index: 1.0 when every player saw the same share of moles in time, 1/n when one player saw them all
+        double fairness = seenSquares == 0 ? 1.0 : seenTotal * seenTotal / (matchPlayers * seenSquares);
+        
+        logMessage("Spawn pacing: " + spawnsShown + " moles shown, " + spawnsSkipped + " skipped, one every "
+                + (elapsed / spawnsShown) + " ms, peak load " + String.format("%.2f", peakSpawnLoad)
+                + ", ack latency " + Math.round(ackLatency) + " ms, "
+                + String.format("%.0f%%", 100 * ackMissRate) + " acks missing" + (ADAPTIVE_PACING ? "" : " (pacing off)"));
+        logMessage("Effective hit rate: " + String.format("%.2f", (double) totalHits / spawnsShown) + " hits per mole, "
+                + String.format("%.0f%%", 100 * seenTotal / matchPlayers) + " of moles seen in time (worst player "
+                + String.format("%.0f%%", 100 * worstSeen) + ", slowest mean ack " + slowestAck + " ms), fairness "
+                + String.format("%.2f", fairness));
     }
     
     private void stopGame() {
+        gameGeneration++;
         gameRunning = false;
         extraTimeActive = false;
-        activePlayersInExtraTime.clear();
-        startButton.setEnabled(true);
-        stopButton.setEnabled(false);
+        players.extraTime.clear();
+        updateButtons();
         
         // Cancel all running tasks
         if (moleSpawnTask != null && !moleSpawnTask.isDone()) {
@@ -355,110 +1083,684 @@ public class WhackAMoleServer extends JFrame {
         }
         
         broadcastMessage("GAME_STOPPED");
+        recordPhase("stopped", players.inMatch.cardinality());
+        logLoopStats();
+        requeueMatchPlayers();
+        if (rebalancePending) {
+            rebalanceRooms();
+        }
         logMessage("Game stopped by server");
     }
     
+    private void logLoopStats() {
+        // Offered is what clients sent over the whole match; per busy second is what the loop can take,
+        // the two only meet once the loop is saturated (busy near 100%)
+        long elapsed = Math.max(1, System.currentTimeMillis() - gameStartTime);
+        long busy = Math.max(1, gameLoop.busyNanos() - loopBusyAtStart);
+        logMessage("Game loop handled " + hitsProcessed + " hits (" + (hitsProcessed * 1000 / elapsed) + " hits/s offered, "
+                + (hitsProcessed * 1_000_000_000L / busy) + " per busy second, busy " + Math.min(100, busy / 10_000 / elapsed) + "%), "
+                + gameLoop.commandsProcessed() + " commands since start");
+        if (PROFILE_HIT_ALLOCATIONS && hitsProcessed > 0) {
+            logMessage("Hit path allocated " + hitAllocatedBytes + " bytes (" + (hitAllocatedBytes / hitsProcessed) + " bytes/hit)");
+        }
+    }
+    
+    private void recordPhase(String phase, int playerCount) {
+        GamePhaseEvent event = new GamePhaseEvent();
+        if (event.shouldCommit()) {
+            event.phase = phase;
+            event.players = playerCount;
+            event.generation = gameGeneration;
+            event.commit();
+        }
+    }
+    
     private void broadcastMessage(String message) {
+        BroadcastEvent event = new BroadcastEvent();
+        event.begin();
+        
         // Create a copy of the clients to avoid concurrent modification
         Map<String, ClientHandler> clientsCopy = new HashMap<>(clients);
         
+        clientsCopy.putAll(spectators);
+        
+        int failures = 0;
         for (Map.Entry<String, ClientHandler> entry : clientsCopy.entrySet()) {
-            try {
-                entry.getValue().sendMessage(message);
-            } catch (Exception e) {
-                // If sending fails, disconnect the client
-                logMessage("Failed to send message to " + entry.getKey() + ", disconnecting...");
-                disconnectClient(entry.getKey());
+            // A player whose registerPlayer() has not run yet gets the whole roster from it, anything
+            // broadcast before then would reach it twice
+            if (!entry.getValue().spectator && entry.getValue().playerId < 0) continue;
+            if (!entry.getValue().sendMessage(message)) {
+                // Client is not draining its queue, evict it without stalling the rest of the broadcast
+                evictClient(entry.getValue(), "outbound queue full");
+                failures++;
+            }
+        }
+        
+        event.end();
+        if (event.shouldCommit()) {
+            int colon = message.indexOf(':');
+            event.messageType = colon < 0 ? message : message.substring(0, colon);
+            event.recipients = clientsCopy.size();
+            event.failures = failures;
+            event.commit();
+        }
+    }
+    
+    private void publishTick() {
+        // Score changes since the last tick collapse into a single scoreboard
+        if (scoresDirty) {
+            scoresDirty = false;
+            broadcastMessage(buildScoresMessage());
+        }
+        
+        // Socket writes stay off the game loop and the timer threads. A tick that finds the previous
+        // flush still dispatching skips, its messages simply go out with the next one.
+        if (flushScheduled.compareAndSet(false, true)) {
+            outboundDispatcher.execute(() -> {
+                try {
+                    flushOutbound();
+                } finally {
+                    flushScheduled.set(false);
+                }
+            });
+        }
+    }
+    
+    private void flushOutbound() {
+        // Hands each connection to its own writer, a peer that stops reading can't hold up the others
+        for (ClientHandler client : allConnections()) {
+            long stalled = client.flushStalledMillis();
+            if (stalled > WRITE_DEADLINE) {
+                // Closing the socket also unblocks the stuck writer
+                evictClient(client, "write blocked for " + stalled + " ms");
+                continue;
+            }
+            client.flushOn(clientWriters, written -> {
+                flushCount.incrementAndGet();
+                charsSent.addAndGet(written);
+            }, e -> evictClient(client, "send failed"));
+        }
+    }
+    
+    private List<ClientHandler> allConnections() {
+        List<ClientHandler> connections = new ArrayList<>(clients.values());
+        connections.addAll(spectators.values());
+        return connections;
+    }
+    
+    private void sendHeartbeats() {
+        for (ClientHandler client : allConnections()) {
+            if (client.idleMillis() > IDLE_TIMEOUT) {
+                evictClient(client, "no heartbeat for " + client.idleMillis() + " ms");
+                continue;
+            }
+            if (!client.sendMessage("PING")) {
+                evictClient(client, "outbound queue full");
+            }
+        }
+    }
+    
+    private void checkNodes() {
+        boolean changed = false;
+        for (String node : roomDirectory.allNodes()) {
+            if (node.equals(NODE_ADDRESS)) continue;
+            
+            if (probeNode(node)) {
+                if (roomDirectory.markUp(node)) {
+                    logMessage("Cluster node up: " + node);
+                    changed = true;
+                }
+            } else if (roomDirectory.markFailed(node, NODE_FAILURES_BEFORE_DOWN)) {
+                logMessage("Cluster node down: " + node);
+                changed = true;
+            }
+        }
+        
+        if (changed) {
+            gameLoop.execute(this::rebalanceRooms);
+        }
+    }
+    
+    private boolean probeNode(String node) {
+        int separator = node.lastIndexOf(':');
+        try (Transport probe = SocketTransport.connect(node.substring(0, separator),
+                Integer.parseInt(node.substring(separator + 1)), NODE_CHECK_TIMEOUT)) {
+            probe.setReceiveTimeout(NODE_CHECK_TIMEOUT);
+            probe.sendFrame("NODE_PING");
+            probe.flush();
+            Transport.Frame reply = new Transport.Frame(MAX_LINE_LENGTH);
+            return probe.receiveFrame(reply) > 0 && reply.contentEquals("NODE_PONG");
+        } catch (IOException | RuntimeException e) {
+            return false;
+        }
+    }
+    
+    private void rebalanceRooms() {
+        // Matches in progress finish where they are, idle players follow their room to its new owner
+        if (gameRunning) {
+            rebalancePending = true; // Picked up again when the match finishes or is stopped
+            return;
+        }
+        rebalancePending = false;
+        
+        for (ClientHandler client : allConnections()) {
+            String owner = roomDirectory.ownerOf(client.room);
+            if (!owner.equals(NODE_ADDRESS)) {
+                client.sendMessage("REDIRECT:" + owner);
+                // Written by the client's writer, never on the game loop
+                clientWriters.execute(() -> {
+                    try {
+                        client.flush();
+                    } catch (IOException e) {
+                        // Evicted below either way
+                    }
+                    evictClient(client, "room " + client.room + " moved to " + owner);
+                });
             }
         }
     }
     
+    private void evictClient(ClientHandler client, String reason) {
+        if (!client.markEvicted()) return;
+        logMessage("Evicting " + client.playerName + ": " + reason);
+        
+        // Closing the socket unblocks the handler thread, which then runs the normal cleanup
+        try {
+            client.close();
+        } catch (IOException e) {
+            logMessage("Error closing client connection: " + e.getMessage());
+        }
+        gameLoop.execute(() -> disconnectClient(client.playerName, client));
+    }
+    
     private void broadcastScores() {
+        // Sent on the next tick, together with any later score change
+        scoresDirty = true;
+    }
+    
+    private String buildScoresMessage() {
+        // SCORES:id,score:... clients map IDs to names from the PLAYER roster
         StringBuilder scoreMsg = new StringBuilder("SCORES");
-        for (Map.Entry<String, Integer> entry : playerScores.entrySet()) {
-            scoreMsg.append(":").append(entry.getKey()).append(",").append(entry.getValue());
+        for (int id = players.used.nextSetBit(0); id >= 0; id = players.used.nextSetBit(id + 1)) {
+            scoreMsg.append(":").append(id).append(",").append(players.scores[id]);
         }
-        broadcastMessage(scoreMsg.toString());
+        return scoreMsg.toString();
     }
     
-    private void disconnectClient(String playerName) {
-        ClientHandler client = clients.remove(playerName);
-        if (client != null) {
-            try {
-                client.close();
-            } catch (IOException e) {
-                logMessage("Error closing client connection: " + e.getMessage());
+    private void disconnectClient(String playerName, ClientHandler client) {
+        if (client.spectator) {
+            if (spectators.remove(playerName, client)) {
+                try {
+                    client.close();
+                } catch (IOException e) {
+                    logMessage("Error closing client connection: " + e.getMessage());
+                }
+                logMessage("Spectator disconnected: " + playerName);
+                updatePlayersLabel();
+            }
+            return;
+        }
+        
+        // Only remove the entry owned by this connection, eviction and the reader thread may both get here
+        if (!clients.remove(playerName, client)) {
+            return;
+        }
+        try {
+            client.close();
+        } catch (IOException e) {
+            logMessage("Error closing client connection: " + e.getMessage());
+        }
+        if (client.udpToken != null) {
+            udpSessions.remove(client.udpToken);
+        }
+        if (client.playerId >= 0) {
+            if (matchQueue.remove(client.playerId)) {
+                updateMatchmakingLabel();
             }
+            players.remove(client.playerId);
+            broadcastMessage("PLAYER_LEFT:" + client.playerId);
+            client.playerId = -1;
         }
-        playerScores.remove(playerName);
-        activePlayersInExtraTime.remove(playerName);
         logMessage("Player disconnected: " + playerName);
         updatePlayersLabel();
         
         // If game is running and not enough players, stop the game
-        if (gameRunning && clients.size() < 1) {
+        if (gameRunning && players.inMatch.isEmpty()) {
             logMessage("Not enough players to continue game, stopping...");
             stopGame();
         }
         
         // If in extra time and active player disconnects, check if we should end extra time
-        if (extraTimeActive && activePlayersInExtraTime.size() < 2) {
+        if (extraTimeActive && players.extraTime.cardinality() < 2) {
             logMessage("Not enough active players in extra time, ending...");
             endExtraTime();
         }
     }
     
+    private void updateButtons() {
+        view.gameStateChanged(gameRunning);
+    }
+    
     private void updatePlayersLabel() {
-        SwingUtilities.invokeLater(() -> 
-            playersLabel.setText("Connected Players: " + clients.size()));
+        view.playersChanged(clients.size(), spectators.size());
     }
     
     private void logMessage(String message) {
-        SwingUtilities.invokeLater(() -> {
-            String timestamp = new Date().toString();
-            logArea.append("[" + timestamp + "] " + message + "\n");
-            logArea.setCaretPosition(logArea.getDocument().getLength());
-        });
+        view.log(message);
     }
     
-    private static class ClientHandler {
-        private Socket socket;
-        private BufferedReader in;
-        private PrintWriter out;
+    /**
+     * Receives what the server reports about itself. Calls come from the game loop and network
+     * threads, an implementation that touches Swing has to hop to the event thread itself.
+     * Everything defaults to nothing except log lines, which go to stdout.
+     */
+    public interface View {
+        default void log(String message) {
+            System.out.println("[" + new Date() + "] " + message);
+        }
+        
+        default void alert(String message) {
+            log(message);
+        }
+        
+        default void statusChanged(String status) {
+        }
+        
+        default void gameStateChanged(boolean running) {
+        }
+        
+        default void playersChanged(int players, int spectators) {
+        }
+        
+        default void matchmakingChanged(String status) {
+        }
+    }
+    
+    // Per-player game state in primitive arrays indexed by a dense player ID
+    private static class PlayerTable {
+        private final BitSet used = new BitSet();
+        private final BitSet extraTime = new BitSet(); // Players who can play in extra time
+        private final BitSet inMatch = new BitSet(); // Players in the current match, the rest are queued
+        private String[] names = new String[16];
+        private int[] scores = new int[16];
+        private int[] hits = new int[16];
+        private long[] queuedSince = new long[16];
+        private long[] lastAckedSeq = new long[16];
+        private long[] ackLatencyTotal = new long[16]; // milliseconds, this match
+        private int[] acks = new int[16];
+        private int[] offered = new int[16]; // moles shown while able to hit, this match
+        private int[] seenInTime = new int[16]; // of those, acked while still visible
+        
+        public int add(String name) {
+            int id = used.nextClearBit(0);
+            if (id >= names.length) {
+                int capacity = names.length * 2;
+                names = Arrays.copyOf(names, capacity);
+                scores = Arrays.copyOf(scores, capacity);
+                hits = Arrays.copyOf(hits, capacity);
+                queuedSince = Arrays.copyOf(queuedSince, capacity);
+                lastAckedSeq = Arrays.copyOf(lastAckedSeq, capacity);
+                ackLatencyTotal = Arrays.copyOf(ackLatencyTotal, capacity);
+                acks = Arrays.copyOf(acks, capacity);
+                offered = Arrays.copyOf(offered, capacity);
+                seenInTime = Arrays.copyOf(seenInTime, capacity);
+            }
+            used.set(id);
+            names[id] = name;
+            scores[id] = 0;
+            hits[id] = 0;
+            lastAckedSeq[id] = 0;
+            ackLatencyTotal[id] = 0;
+            acks[id] = 0;
+            offered[id] = 0;
+            seenInTime[id] = 0;
+            return id;
+        }
+        
+        public void remove(int id) {
+            used.clear(id);
+            extraTime.clear(id);
+            inMatch.clear(id);
+            names[id] = null;
+        }
+        
+        public boolean contains(int id) {
+            return id >= 0 && used.get(id);
+        }
+        
+        public void resetScores() {
+            Arrays.fill(scores, 0);
+            Arrays.fill(hits, 0);
+            Arrays.fill(lastAckedSeq, 0);
+            Arrays.fill(ackLatencyTotal, 0);
+            Arrays.fill(acks, 0);
+            Arrays.fill(offered, 0);
+            Arrays.fill(seenInTime, 0);
+        }
+        
+        public int[] ranked(BitSet subset) {
+            // IDs in subset, highest score first
+            int[] ids = new int[subset.cardinality()];
+            int count = 0;
+            for (int id = subset.nextSetBit(0); id >= 0; id = subset.nextSetBit(id + 1)) {
+                if (used.get(id)) ids[count++] = id;
+            }
+            Integer[] boxed = new Integer[count];
+            for (int i = 0; i < count; i++) boxed[i] = ids[i];
+            Arrays.sort(boxed, (a, b) -> scores[b] - scores[a]);
+            int[] result = new int[count];
+            for (int i = 0; i < count; i++) result[i] = boxed[i];
+            return result;
+        }
+        
+        public List<String> namesOf(BitSet subset) {
+            List<String> result = new ArrayList<>();
+            for (int id = subset.nextSetBit(0); id >= 0; id = subset.nextSetBit(id + 1)) {
+                if (used.get(id)) result.add(names[id]);
+            }
+            return result;
+        }
+    }
+    
+    // Runs every game state change on one thread, in submission order. Any thread may submit
+    // (multi-producer), only the loop thread consumes, so the game logic itself needs no locks.
+    private class GameLoop implements Runnable {
+        private final Queue<Runnable> commands = new ConcurrentLinkedQueue<>();
+        private final Thread thread;
+        private final AtomicLong processed = new AtomicLong();
+        private long busyNanos, batchStart; // loop thread only
+        
+        public GameLoop() {
+            thread = new Thread(this, "game-loop");
+            thread.setDaemon(true);
+            thread.start();
+        }
+        
+        public void execute(Runnable command) {
+            commands.add(command);
+            LockSupport.unpark(thread);
+        }
+        
+        public long commandsProcessed() {
+            return processed.get();
+        }
+        
+        public long busyNanos() {
+            // Time spent running commands, call it from a command so the batch in progress counts too
+            return busyNanos + (System.nanoTime() - batchStart);
+        }
+        
+        @Override
+        public void run() {
+            while (true) {
+                Runnable command;
+                batchStart = System.nanoTime();
+                while ((command = commands.poll()) != null) {
+                    try {
+                        command.run();
+                    } catch (RuntimeException e) {
+                        logMessage("Game loop error: " + e);
+                    }
+                    processed.lazySet(processed.get() + 1);
+                }
+                busyNanos += System.nanoTime() - batchStart;
+                // Unpark before park just returns, so a command added meanwhile is never missed
+                LockSupport.park(this);
+            }
+        }
+    }
+    
+    // Reads lines into a fixed buffer, discarding anything longer than the limit, and parses
+    // HIT lines in place so rejected or valid input alike never allocates
+    private static class ClientHandler extends QueuedConnection {
         private String playerName;
+        private String room;
+        private boolean spectator;
+        private int playerId = -1; // assigned and read on the game loop
+        private volatile String udpToken;
+        private volatile SocketAddress udpAddress;
+        private long lastHitSeq = -1;
+        private long seenHitSeqs; // bit i set: lastHitSeq - 1 - i was already accepted
+        private long lastFreeAckSeq; // highest SPAWN_ACK let through without a token, reader thread only
+        private double tokens;
+        private long lastRefill;
         
-        public ClientHandler(Socket socket, BufferedReader in, PrintWriter out, String playerName) {
-            this.socket = socket;
-            this.in = in;
-            this.out = out;
+        public ClientHandler(Transport transport, String playerName) {
+            super(transport, MAX_PENDING_MESSAGES);
             this.playerName = playerName;
+            this.tokens = MESSAGE_BURST;
+            this.lastRefill = System.nanoTime();
+        }
+        
+        public synchronized boolean tryAcquire() {
+            // Token bucket: MAX_MESSAGES_PER_SECOND sustained, up to MESSAGE_BURST at once
+            long now = System.nanoTime();
+            tokens = Math.min(MESSAGE_BURST, tokens + (now - lastRefill) * MAX_MESSAGES_PER_SECOND / 1e9);
+            lastRefill = now;
+            if (tokens < 1) return false;
+            tokens--;
+            return true;
         }
         
-        public void sendMessage(String message) {
-            if (out != null && !socket.isClosed()) {
-                out.println(message);
-                // Check if the connection is still alive
-                if (out.checkError()) {
-                    throw new RuntimeException("Failed to send message to client");
+        public synchronized boolean acceptHitSeq(long seq) {
+            // Hits arrive over TCP and, redundantly, over UDP, only the first copy counts. The channels
+            // can overtake each other, so a 64-hit window remembers which older sequence numbers were seen.
+            if (seq > lastHitSeq) {
+                long shift = seq - lastHitSeq;
+                if (lastHitSeq < 0 || shift > 64) {
+                    seenHitSeqs = 0;
+                } else {
+                    // The old highest becomes bit shift - 1
+                    seenHitSeqs = (shift == 64 ? 0 : seenHitSeqs << shift) | (1L << (shift - 1));
                 }
+                lastHitSeq = seq;
+                return true;
             }
+            long age = lastHitSeq - seq;
+            if (age == 0 || age > 64) return false; // Duplicate, or too old to tell
+            long bit = 1L << (age - 1);
+            if ((seenHitSeqs & bit) != 0) return false;
+            seenHitSeqs |= bit;
+            return true;
         }
+
+    }
+    
+    // Maps room IDs to cluster nodes with consistent hashing, so a node joining or
+    // leaving only moves the rooms next to it on the ring
+    private static class RoomDirectory {
+        private static final int VIRTUAL_NODES = 64;
+        
+        private final String self;
+        private final List<String> nodes;
+        private final Map<String, Integer> failures = new HashMap<>();
+        private final Set<String> liveNodes = new HashSet<>();
+        private final TreeMap<Long, String> ring = new TreeMap<>();
         
-        public void close() throws IOException {
-            if (socket != null && !socket.isClosed()) {
-                socket.close();
+        public RoomDirectory(String self, String nodeList) {
+            this.self = self;
+            Set<String> configured = new LinkedHashSet<>();
+            for (String node : nodeList.split(",")) {
+                if (!node.trim().isEmpty()) {
+                    configured.add(node.trim());
+                }
             }
+            configured.add(self);
+            nodes = new ArrayList<>(configured);
+            
+            // Everyone starts out live, the first round of probes corrects that
+            liveNodes.addAll(nodes);
+            rebuildRing();
+        }
+        
+        public boolean isClustered() {
+            return nodes.size() > 1;
+        }
+        
+        public List<String> allNodes() {
+            return nodes;
+        }
+        
+        public synchronized String ownerOf(String room) {
+            Map.Entry<Long, String> entry = ring.ceilingEntry(hash(room));
+            return entry != null ? entry.getValue() : ring.firstEntry().getValue();
+        }
+        
+        public synchronized boolean markUp(String node) {
+            failures.remove(node);
+            if (!liveNodes.add(node)) return false;
+            rebuildRing();
+            return true;
+        }
+        
+        public synchronized boolean markFailed(String node, int threshold) {
+            int count = failures.merge(node, 1, Integer::sum);
+            if (count < threshold || node.equals(self) || !liveNodes.remove(node)) return false;
+            rebuildRing();
+            return true;
+        }
+        
+        private void rebuildRing() {
+            ring.clear();
+            for (String node : liveNodes) {
+                for (int i = 0; i < VIRTUAL_NODES; i++) {
+                    ring.put(hash(node + "#" + i), node);
+                }
+            }
+        }
+        
+        private static long hash(String key) {
+            // 64-bit FNV-1a with a final mix so similar keys spread around the ring
+            long h = 0xcbf29ce484222325L;
+            for (int i = 0; i < key.length(); i++) {
+                h ^= key.charAt(i);
+                h *= 0x100000001b3L;
+            }
+            h ^= (h >>> 33);
+            h *= 0xff51afd7ed558ccdL;
+            h ^= (h >>> 33);
+            return h;
         }
     }
     
-    public static void main(String[] args) {
-        SwingUtilities.invokeLater(() -> {
-            try {
-                UIManager.setLookAndFeel(UIManager.getSystemLookAndFeelClassName());
-            } catch (Exception e) {
-                // Use default look and feel
+    // Flight Recorder events, see whackamole.jfc. They cost next to nothing while no recording is running.
+    @Name("whackamole.Handshake")
+    @Label("Handshake")
+    @Category("WhackAMole")
+    @Description("Connection handshake, from accept to the first flushed reply")
+    @StackTrace(false)
+    private static class HandshakeEvent extends Event {
+        @Label("Player")
+        String playerName;
+        
+        @Label("Room")
+        String room;
+        
+        @Label("Result")
+        String result;
+        
+        private transient boolean completed;
+        
+        void complete(String playerName, String room, String result) {
+            // Only the first outcome counts, the connection's finally block reports the rest as failed
+            if (completed) return;
+            completed = true;
+            end();
+            if (shouldCommit()) {
+                this.playerName = playerName;
+                this.room = room;
+                this.result = result;
+                commit();
             }
-            new WhackAMoleServer().setVisible(true);
-        });
+        }
+    }
+    
+    @Name("whackamole.Hit")
+    @Label("Hit")
+    @Category("WhackAMole")
+    @Description("Hit decoded and validated, with its result. Hits rejected before scoring carry no coordinates.")
+    @StackTrace(false)
+    private static class HitEvent extends Event {
+        @Label("Player ID")
+        int playerId;
+        
+        @Label("X")
+        int x;
+        
+        @Label("Y")
+        int y;
+        
+        @Label("Result")
+        String result;
+        
+        @Label("Mole Age")
+        @Description("Client hit time minus server spawn time")
+        @Timespan(Timespan.MILLISECONDS)
+        long moleAge;
+        
+        @Label("Queue Delay")
+        @Description("Time from the connection thread handing the hit over to the game loop applying it")
+        @Timespan(Timespan.NANOSECONDS)
+        long queueDelay;
+    }
+    
+    @Name("whackamole.MoleSpawn")
+    @Label("Mole Spawn")
+    @Category("WhackAMole")
+    @StackTrace(false)
+    private static class MoleSpawnEvent extends Event {
+        @Label("X")
+        int x;
+        
+        @Label("Y")
+        int y;
+        
+        @Label("Sequence")
+        long sequence;
+        
+        @Label("Extra Time")
+        boolean extraTime;
+    }
+    
+    @Name("whackamole.Broadcast")
+    @Label("Broadcast")
+    @Category("WhackAMole")
+    @Description("Fan-out of one message to every connection's outbound queue")
+    @StackTrace(false)
+    private static class BroadcastEvent extends Event {
+        @Label("Message Type")
+        String messageType;
+        
+        @Label("Recipients")
+        int recipients;
+        
+        @Label("Failures")
+        @Description("Recipients evicted because their outbound queue was full")
+        int failures;
+    }
+    
+    @Name("whackamole.GamePhase")
+    @Label("Game Phase")
+    @Category("WhackAMole")
+    @StackTrace(false)
+    private static class GamePhaseEvent extends Event {
+        @Label("Phase")
+        String phase;
+        
+        @Label("Players")
+        int players;
+        
+        @Label("Generation")
+        long generation;
+    }
+    
+    public static void main(String[] args) {
+        WhackAMoleServer server = new WhackAMoleServer();
+        if (GraphicsEnvironment.isHeadless()) {
+            // No display, run as a plain console server
+            server.start(true);
+        } else {
+            ServerWindow.open(server);
+        }
     }
-}
\ No newline at end of file
+}